@@ -36,7 +36,7 @@ public class AboutPanel extends JPanel {
     try {
       add(content(),BorderLayout.CENTER);
     } catch (IOException e) {
-      System.out.println(e);
+      EventLog.warn("about panel not loaded","error",e);
     }
     add(okPanel(),BorderLayout.SOUTH);
     
@@ -9,9 +9,7 @@
 
 package trichromino;
 
-import java.awt.Point;
 import java.util.Random;
-import java.util.LinkedList;
 
 public class BasicGameGenerator {
   
@@ -25,6 +23,15 @@ public class BasicGameGenerator {
   
   private Random random;
   
+  // positions (packed, see Position) reached by the last bfs, in the order reached;
+  // those from queueHead on are still to be expanded.
+  private int[] visited;
+  private int numVisited;
+  private int queueHead;
+  private boolean[] seen; // row-major flags marking the visited positions
+  
+  private int[] adjacent = new int[4];
+  
   // color identification integers
   private final int EMPTY = 0;
   private final int WHITE = 1;
@@ -52,10 +59,27 @@ public class BasicGameGenerator {
     
     minRow = minCol = 0;
     
+    visited = new int[gridWidth*gridHeight];
+    seen = new boolean[gridWidth*gridHeight];
+    
     random = new Random();
     
   }
   
+  /**
+   * Constructor takes in a GameGrid and a seed, so that the same
+   * grid is generated every time for the same seed.
+   * 
+   * @param g GameGrid in which Generator operations will be performed.
+   * @param seed the seed of the random number generator.
+   */
+  public BasicGameGenerator(GameGrid g, long seed) {
+    
+    this(g);
+    random = new Random(seed);
+    
+  }
+  
   /**
    * Generates and places a set of purely polyomino pieces onto
    * the grid.  Makes no changes to the grid itself.
@@ -90,13 +114,15 @@ public class BasicGameGenerator {
     
     while (numTraps > 0) {
       
-      Point p = new Point(random.nextInt(gridWidth),random.nextInt(gridHeight));
+      int col = random.nextInt(gridWidth);
+      int row = random.nextInt(gridHeight);
       
-      while (grid.hasTrap(p.y,p.x)) {
-        p = new Point(random.nextInt(gridWidth),random.nextInt(gridHeight));
+      while (grid.hasTrap(row,col)) {
+        col = random.nextInt(gridWidth);
+        row = random.nextInt(gridHeight);
       }
       
-      grid.setTrap(p.y,p.x);
+      grid.setTrap(row,col);
       numTraps--;
       
     }
@@ -119,29 +145,34 @@ public class BasicGameGenerator {
    * Generates and places a random polyomino of size numSquares through a BFS starting at
    * root.
    * 
-   * @param root the point at which the BFS starts
+   * @param root the position (packed, see Position) at which the BFS starts
    * @param numSquares the number of squares making up the produced polyomino.
    */
-  private void createPolyomino(Point root, int numSquares) {
-    
-    Piece p = new Piece(gridHeight,gridWidth,color);
+  private void createPolyomino(int root, int numSquares) {
     
-    //Creates a list of points in which squares will be added.
-    LinkedList<Point> additions = bfs(root,numSquares);
+    //Finds the positions at which squares will be added.
+    int additions = bfs(root,numSquares);
     
     // Does nothing if the returned bfs is smaller than three squares
     // (consider this a quick fix for the time being.  Seems to denote
     // a problem in the bfs algorithm.)
-    if (additions.size()>=MIN_SIZE) {
+    if (additions>=MIN_SIZE) {
       
-      //Creates and crops piece.
-      for (Point pt : additions) {
-        p.addSquare(pt.y,pt.x);
+      int maxRow = minRow, maxCol = minCol;
+      for (int i = 0; i < additions; i++) {
+        maxRow = Math.max(maxRow,Position.row(visited[i]));
+        maxCol = Math.max(maxCol,Position.col(visited[i]));
+      }
+      
+      //Creates and crops piece, sized to the squares found rather than the grid.
+      Piece p = new Piece(maxCol-minCol+1,maxRow-minRow+1,color);
+      for (int i = 0; i < additions; i++) {
+        p.addSquare(Position.row(visited[i])-minRow,Position.col(visited[i])-minCol);
       }
       
       p = p.crop();
       
-      grid.addPiece(p,new Point(minCol,minRow));
+      grid.addPiece(p,minRow,minCol);
       
       // Switches the current colour value in order
       // to create pieces of alternating colour.
@@ -164,9 +195,9 @@ public class BasicGameGenerator {
    * Searches for a point in the grid at which there are two or
    * more paths to follow.
    * 
-   * @return A point at which there are two or more paths to follow.
+   * @return A position (packed, see Position) at which there are two or more paths to follow.
    */
-  private Point getRoot() {
+  private int getRoot() {
     
     int n, m, vertCount, horzCount;
     
@@ -186,7 +217,7 @@ public class BasicGameGenerator {
       n = (n+1)%gridHeight;
       vertCount++;
     }
-    return new Point(m,n);
+    return Position.of(n,m);
     
   }
   
@@ -202,7 +233,7 @@ public class BasicGameGenerator {
    */
   private boolean hasPiece(int n, int m) {
     
-    if (grid.getAdjacent(n,m)[EMPTY] > 1) return true;
+    if (Integer.bitCount(grid.adjacentMask(n,m,EMPTY)) > 1) return true;
     
     return false;
     
@@ -211,110 +242,113 @@ public class BasicGameGenerator {
   /**
    * Modified version of BFS search which has a factor of randomness, involving
    * decisions made on whether or not a particular path will be traversed.
+   * The positions traveled are left at the start of visited.
    * 
-   * @param root the starting point of the search
+   * @param root the starting position (packed, see Position) of the search
    * @param size the preferred size of the retured list.
-   * @return A list of points traveled by this BFS with a length of at most size.
+   * @return The number of positions traveled by this BFS (at most size).
    */
-  private LinkedList<Point> bfs(Point root, int size) {
+  private int bfs(int root, int size) {
     
     // tracks the minimum row/column occupied by a square.
-    minRow = root.y;
-    minCol = root.x;
-    
-    LinkedList<Point> visited = new LinkedList<Point>();
-    visited.add(root);
+    minRow = Position.row(root);
+    minCol = Position.col(root);
     
-    LinkedList<Point> queue = new LinkedList<Point>();
-    queue.add(root);
+    numVisited = queueHead = 0;
+    visit(root);
     
-    // if the size of the queue is less than zero then there are no farther
-    // extensions for the piece and the list is returned.  Otherwise continues
-    // to add to the visited list until it reaches a length of size.
-    while (queue.size() > 0 && visited.size() < size) {
+    // if the queue is empty then there are no farther extensions for the
+    // piece and the positions are returned.  Otherwise continues to visit
+    // positions until size of them have been visited.
+    while (queueHead < numVisited && numVisited < size) {
       
-      Point currentPoint = queue.remove();
+      int current = visited[queueHead++];
       
-      LinkedList<Point> adjacent = emptyAdjacent(currentPoint,visited);
+      int numAdjacent = emptyAdjacent(current);
       
       // if at a particular point there are more than two possible
       // directions of travel, picks at least two of them to append
-      // to the queue.
-      if (adjacent.size() > 2) {
+      // to the queue.  Otherwise picks as many as are needed, in a
+      // random order.
+      int numPoints;
+      
+      if (numAdjacent > 2) {
+        numPoints = random.nextInt(numAdjacent-1) + 2;
+        while (size-numVisited < numPoints) numPoints--;
+      } else {
+        numPoints = Math.min(numAdjacent,size-numVisited);
+      }
+      
+      while (numPoints > 0) {
         
-        int numPoints = random.nextInt(adjacent.size()-1) + 2;
+        int nextIndex = random.nextInt(numAdjacent);
+        int next = adjacent[nextIndex];
         
-        while (size-(visited.size()) < numPoints) numPoints--;
+        // removes next, keeping the remaining positions in order.
+        System.arraycopy(adjacent,nextIndex+1,adjacent,nextIndex,numAdjacent-nextIndex-1);
+        numAdjacent--;
         
-        while (numPoints > 0) {
-          
-          int nextIndex = random.nextInt(adjacent.size());
-          Point nextPoint = adjacent.remove(nextIndex);
-          
-          if (nextPoint.y < minRow) minRow = nextPoint.y;
-          if (nextPoint.x < minCol) minCol = nextPoint.x;
-          
-          queue.add(nextPoint);
-          visited.add(nextPoint);
-          numPoints--;
-          
-        }
+        if (Position.row(next) < minRow) minRow = Position.row(next);
+        if (Position.col(next) < minCol) minCol = Position.col(next);
+        
+        visit(next);
+        numPoints--;
         
-      } else {
-        if (size-(visited.size()) >= adjacent.size()) {
-          
-          //while loop ascertains that the adjacent squares are added in a random order.
-          while (adjacent.size() > 0) {
-            
-            Point next = adjacent.remove(random.nextInt(adjacent.size()));
-            
-            if (next.y < minRow) minRow = next.y;
-            if (next.x < minCol) minCol = next.x;
-            
-            queue.add(next);
-            visited.add(next);
-            
-          }
-          
-        } else {
-          while (size-(visited.size()) > 0) {
-            
-            Point next = adjacent.remove(random.nextInt(adjacent.size()));
-            
-            if (next.y < minRow) minRow = next.y;
-            if (next.x < minCol) minCol = next.x;
-            
-            queue.add(next);
-            visited.add(next);
-            
-          }
-        }
       }
       
     }
     
-    return visited;
+    for (int i = 0; i < numVisited; i++) {
+      seen[index(visited[i])] = false;
+    }
+    
+    return numVisited;
+    
+  }
+  
+  /**
+   * Marks position as visited and appends it to the queue.
+   * 
+   * @param position the position (packed, see Position) being visited
+   */
+  private void visit(int position) {
+    
+    visited[numVisited++] = position;
+    seen[index(position)] = true;
+    
+  }
+  
+  /**
+   * Returns the row-major index of a position.
+   * 
+   * @param position the packed position
+   * @return the index of position in a row-major array.
+   */
+  private int index(int position) {
+    
+    return Position.row(position)*gridWidth + Position.col(position);
     
   }
   
   /**
-   * Returns a list of unvisited points from point according to visited list.
+   * Finds the empty positions adjacent to position that have not been visited,
+   * leaving them at the start of adjacent.
    * 
-   * @param point the target point
-   * @param visited a list of visited points
-   * @return A list of points adjacent to point that have not been traversed in visited.
+   * @param position the target position (packed, see Position)
+   * @return The number of unvisited empty positions adjacent to position.
    */
-  private LinkedList<Point> emptyAdjacent(Point point, LinkedList<Point> visited) {
+  private int emptyAdjacent(int position) {
     
-    LinkedList<Point> unvisited = grid.strictAdjEmpty(point.y,point.x);
+    int total = grid.strictAdjEmpty(Position.row(position),Position.col(position),adjacent);
+    int count = 0;
     
-    for (Point p : visited) {
+    for (int i = 0; i < total; i++) {
       
-      if (unvisited.contains(p)) unvisited.remove(p);
+      if (!seen[index(adjacent[i])]) adjacent[count++] = adjacent[i];
       
     }
     
-    return unvisited;
+    return count;
     
   }
   
@@ -326,7 +360,7 @@ public class BasicGameGenerator {
     
     GameGrid grid = new GameGrid(10,10);
     BasicGameGenerator test = new BasicGameGenerator(grid);
-    test.createPolyomino(new Point(5,5),20);
+    test.createPolyomino(Position.of(5,5),20);
     
     System.out.println(test.grid);
     
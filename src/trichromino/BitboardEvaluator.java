@@ -0,0 +1,359 @@
+/**
+ * BitboardEvaluator evaluates a grid (see GameGrid.evaluate) 64 squares at a time,
+ * reading the squares of the grid from its row-major backing array.
+ * <p>
+ * Each row is held as two bitboards (long words, one bit per square): its white
+ * squares and its black squares.  The neighbours of all the squares of a word are
+ * found by shifting the words of the row left and right and taking the words of the
+ * rows above and below, and whether each square has exactly one, or two or more,
+ * neighbours of the opposite shade is then found with a handful of bitwise
+ * operations on the whole word.  Only the squares whose shade changes are written
+ * one at a time.
+ * <p>
+ * Rows depend only on the rows next to them, so large grids are also split into
+ * bands of rows evaluated in parallel on a fork-join pool, each band reading (but
+ * not writing) the row just above and below it.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class BitboardEvaluator {
+
+  private static final int WHITE = 1;
+  private static final int BLACK = 3;
+  private static final int GRAY = 5;
+  private static final int T_BLACK = 10;
+  private static final int T_WHITE = 12;
+
+  // threads evaluating bands (-Dtrichromino.parallelism, the number of processors by default).
+  static final int PARALLELISM =
+    Math.max(1,Integer.getInteger("trichromino.parallelism",Runtime.getRuntime().availableProcessors()));
+
+  // smallest grid (in squares) split into bands, and the largest band (in squares).
+  static final int PARALLEL_CELLS = 1 << 18;
+  private static final int BAND_CELLS = 1 << 15;
+
+  private BitboardEvaluator() {
+
+  }
+
+  /**
+   * Returns the evaluation (visible shade of every square) of a grid.
+   *
+   * @param cells the values of the squares of a grid, row by row (see GameGrid.getCells)
+   * @param height the number of rows of the grid
+   * @param width the number of columns of the grid
+   * @return a new array of the visible shades of the grid.
+   */
+  static int[][] evaluate(byte[] cells, int height, int width) {
+
+    int[][] shades = new int[height][width];
+    evaluate(cells,width,shades,0,height);
+
+    return shades;
+
+  }
+
+  /**
+   * Returns the evaluation of a grid, split into bands of rows evaluated in
+   * parallel.  Grids are evaluated on the calling thread if PARALLELISM is 1.
+   *
+   * @param cells the values of the squares of a grid, row by row (see GameGrid.getCells)
+   * @param height the number of rows of the grid
+   * @param width the number of columns of the grid
+   * @return a new array of the visible shades of the grid.
+   */
+  static int[][] evaluateParallel(byte[] cells, int height, int width) {
+
+    if (PARALLELISM <= 1) return evaluate(cells,height,width);
+
+    // rows are created by the bands writing them
+    int[][] shades = new int[height][];
+    Pool.POOL.invoke(new Band(cells,width,shades,null,new AtomicBoolean(),0,height));
+
+    return shades;
+
+  }
+
+  /**
+   * Determines whether or not the evaluation of a grid matches a solution, bands of
+   * rows being evaluated and compared in parallel.  Bands not yet started are
+   * skipped once a band is found not to match.
+   *
+   * @param cells the values of the squares of a grid, row by row (see GameGrid.getCells)
+   * @param height the number of rows of the grid
+   * @param width the number of columns of the grid
+   * @param solution an array of the same size as the grid
+   * @return true if the evaluation of the grid is solution.
+   */
+  static boolean matchesParallel(byte[] cells, int height, int width, int[][] solution) {
+
+    AtomicBoolean mismatch = new AtomicBoolean();
+    Band band = new Band(cells,width,new int[height][],solution,mismatch,0,height);
+
+    if (PARALLELISM <= 1) {
+      band.evaluate();
+    } else {
+      Pool.POOL.invoke(band);
+    }
+
+    return !mismatch.get();
+
+  }
+
+  /**
+   * Evaluates a band of rows of a grid.  The rows just above and below the band are
+   * read (not written), so bands next to each other may be evaluated at once.
+   *
+   * @param cells the values of the squares of a grid, row by row
+   * @param width the number of columns of the grid
+   * @param shades the evaluation, whose rows from to to - 1 are written
+   * @param from the first row of the band
+   * @param to the row after the last row of the band
+   */
+  static void evaluate(byte[] cells, int width, int[][] shades, int from, int to) {
+
+    int height = shades.length;
+    int words = (width + 63) >>> 6;
+
+    // white and black squares of the rows above, at and below the current row.
+    long[] whiteAbove = new long[words], blackAbove = new long[words];
+    long[] white = new long[words], black = new long[words];
+    long[] whiteBelow = new long[words], blackBelow = new long[words];
+
+    if (from > 0) split(cells,(from - 1)*width,width,null,whiteAbove,blackAbove);
+    split(cells,from*width,width,shades[from],white,black);
+
+    for (int i = from; i < to; i++) {
+
+      boolean last = (i == height - 1);
+      if (!last) split(cells,(i + 1)*width,width,(i + 1 < to) ? shades[i + 1] : null,whiteBelow,blackBelow);
+
+      int[] row = shades[i];
+
+      for (int k = 0; k < words; k++) {
+
+        long w = white[k];
+        long b = black[k];
+
+        if ((w | b) == 0) continue;
+
+        long carryW = (k > 0) ? white[k - 1] >>> 63 : 0;
+        long carryB = (k > 0) ? black[k - 1] >>> 63 : 0;
+        long nextW = (k + 1 < words) ? white[k + 1] << 63 : 0;
+        long nextB = (k + 1 < words) ? black[k + 1] << 63 : 0;
+
+        // the white and black neighbours of each square, one word per direction.
+        long wl = (w << 1) | carryW, wr = (w >>> 1) | nextW;
+        long bl = (b << 1) | carryB, br = (b >>> 1) | nextB;
+        long wu = (i > 0) ? whiteAbove[k] : 0, wd = last ? 0 : whiteBelow[k];
+        long bu = (i > 0) ? blackAbove[k] : 0, bd = last ? 0 : blackBelow[k];
+
+        // two half adders per shade: a bit of oneX is set if exactly one neighbour
+        // is X, a bit of twoX if two or more are.
+        long sw1 = wl ^ wr, cw1 = wl & wr, sw2 = wu ^ wd, cw2 = wu & wd;
+        long twoW = cw1 | cw2 | (sw1 & sw2);
+        long oneW = (sw1 ^ sw2) & ~(cw1 | cw2);
+
+        long sb1 = bl ^ br, cb1 = bl & br, sb2 = bu ^ bd, cb2 = bu & bd;
+        long twoB = cb1 | cb2 | (sb1 & sb2);
+        long oneB = (sb1 ^ sb2) & ~(cb1 | cb2);
+
+        int base = k << 6;
+
+        write(row,base,(w & oneB) | (b & oneW),GRAY);
+        write(row,base,w & twoB,BLACK);
+        write(row,base,b & twoW,WHITE);
+
+      }
+
+      long[] spare;
+      spare = whiteAbove; whiteAbove = white; white = whiteBelow; whiteBelow = spare;
+      spare = blackAbove; blackAbove = black; black = blackBelow; blackBelow = spare;
+
+    }
+
+  }
+
+  /**
+   * Splits a row of a grid into its white and black bitboards, and writes the
+   * original shade of each square to the matching row of the evaluation.
+   *
+   * @param cells the values of the squares of the grid
+   * @param start the index in cells of the first square of the row
+   * @param width the number of squares in the row
+   * @param shades the row of the evaluation (null if not written)
+   * @param white the words receiving the white squares
+   * @param black the words receiving the black squares
+   */
+  private static void split(byte[] cells, int start, int width, int[] shades, long[] white, long[] black) {
+
+    for (int k = 0; k < white.length; k++) {
+
+      long w = 0;
+      long b = 0;
+      int base = k << 6;
+      int n = Math.min(64,width - base);
+
+      for (int j = 0; j < n; j++) {
+
+        int value = cells[start + base + j];
+
+        switch (value) {
+
+          case WHITE :
+          case T_WHITE :
+            w |= 1L << j;
+            value = WHITE;
+            break;
+
+          case BLACK :
+          case T_BLACK :
+            b |= 1L << j;
+            value = BLACK;
+            break;
+
+          default :
+            break;
+
+        }
+
+        if (shades != null) shades[base + j] = value;
+
+      }
+
+      white[k] = w;
+      black[k] = b;
+
+    }
+
+  }
+
+  /**
+   * Writes a shade to every square of a word whose bit is set.
+   *
+   * @param row the row of the evaluation
+   * @param base the column of the first square of the word
+   * @param bits the squares to write
+   * @param shade the shade written
+   */
+  private static void write(int[] row, int base, long bits, int shade) {
+
+    while (bits != 0) {
+
+      row[base + Long.numberOfTrailingZeros(bits)] = shade;
+      bits &= bits - 1;
+
+    }
+
+  }
+
+  /**
+   * A band of rows of a grid, halved until it is at most BAND_CELLS squares.
+   */
+  private static final class Band extends RecursiveAction {
+
+    private static final long serialVersionUID = 1;
+
+    private final byte[] cells;
+    private final int width;
+    private final int[][] shades;
+    private final int[][] solution; // null if the band is only evaluated
+    private final AtomicBoolean mismatch;
+    private final int from;
+    private final int to;
+
+    /**
+     * Constructor takes the grid and the rows of the band.
+     *
+     * @param cells the values of the squares of the grid, row by row
+     * @param width the number of columns of the grid
+     * @param shades the evaluation, whose rows are created by the band
+     * @param solution the solution to which the band is compared (or null)
+     * @param mismatch set if the band does not match solution
+     * @param from the first row of the band
+     * @param to the row after the last row of the band
+     */
+    Band(byte[] cells, int width, int[][] shades, int[][] solution, AtomicBoolean mismatch, int from, int to) {
+
+      this.cells = cells;
+      this.width = width;
+      this.shades = shades;
+      this.solution = solution;
+      this.mismatch = mismatch;
+      this.from = from;
+      this.to = to;
+
+    }
+
+    protected void compute() {
+
+      if (to - from < 2 || (long) (to - from)*width <= BAND_CELLS) {
+        evaluate();
+        return;
+      }
+
+      int middle = (from + to) >>> 1;
+      invokeAll(new Band(cells,width,shades,solution,mismatch,from,middle),
+                new Band(cells,width,shades,solution,mismatch,middle,to));
+
+    }
+
+    /**
+     * Evaluates the band on the calling thread and, if there is a solution, compares
+     * it to the solution.
+     */
+    void evaluate() {
+
+      if (mismatch.get()) return;
+
+      for (int i = from; i < to; i++) {
+        shades[i] = new int[width];
+      }
+
+      BitboardEvaluator.evaluate(cells,width,shades,from,to);
+
+      if (solution == null) return;
+
+      for (int i = from; i < to; i++) {
+        if (!Arrays.equals(shades[i],solution[i])) mismatch.set(true);
+        shades[i] = null;
+      }
+
+    }
+
+  }
+
+  /**
+   * Holds the pool evaluating bands, created with the first parallel evaluation.
+   */
+  private static class Pool {
+
+    private static final ForkJoinPool POOL =
+      new ForkJoinPool(PARALLELISM,new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+
+      private final AtomicInteger count = new AtomicInteger();
+
+      public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+
+        ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) { };
+        thread.setName("trichromino-evaluate-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+
+      }
+
+    },null,false);
+
+  }
+
+}
@@ -0,0 +1,284 @@
+/**
+ * BoardWriter writes boards, pieces and games as text to any Appendable (a Writer,
+ * a StringBuilder, a PrintStream...), one row per line with every square followed
+ * by a space, as in the toString methods of GameGrid, Piece and Trichromino (which
+ * use it).
+ * <p>
+ * Output is written square by square, so the time taken is linear in the size of
+ * the board and nothing is built beyond the board being written (a single view of
+ * the board for the current view of a game).
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+public final class BoardWriter {
+
+  private BoardWriter() {
+
+  }
+
+  /**
+   * Writes a matrix of squares, one row per line.
+   *
+   * @param matrix the squares to write
+   * @param out where the squares are written
+   * @throws IOException If out cannot be written to.
+   */
+  public static void write(int[][] matrix, Appendable out) throws IOException {
+
+    for (int[] row : matrix) {
+
+      for (int square : row) {
+        append(square,out);
+        out.append(' ');
+      }
+
+      out.append('\n');
+
+    }
+
+  }
+
+  /**
+   * Writes the squares of a grid (see GameGrid.getGrid).
+   *
+   * @param grid the grid to write
+   * @param out where the grid is written
+   * @throws IOException If out cannot be written to.
+   */
+  public static void write(GameGrid grid, Appendable out) throws IOException {
+
+    write(grid.getCells(),grid.getHeight(),grid.getWidth(),out);
+
+  }
+
+  /**
+   * Writes the squares of a piece.
+   *
+   * @param piece the piece to write
+   * @param out where the piece is written
+   * @throws IOException If out cannot be written to.
+   */
+  public static void write(Piece piece, Appendable out) throws IOException {
+
+    write(piece.getCells(),piece.getHeight(),piece.getWidth(),out);
+
+  }
+
+  /**
+   * Writes squares stored row by row, one row per line.
+   *
+   * @param cells the squares to write
+   * @param rows the number of rows
+   * @param cols the number of squares in each row
+   * @param out where the squares are written
+   */
+  private static void write(byte[] cells, int rows, int cols, Appendable out) throws IOException {
+
+    for (int i = 0; i < rows; i++) {
+
+      for (int j = 0; j < cols; j++) {
+        append(cells[i*cols + j],out);
+        out.append(' ');
+      }
+
+      out.append('\n');
+
+    }
+
+  }
+
+  /**
+   * Writes a piece, whether or not it is placed and its location (as PieceNode.toString).
+   *
+   * @param node the node of the piece to write
+   * @param out where the piece is written
+   * @throws IOException If out cannot be written to.
+   */
+  public static void write(PieceNode<Piece> node, Appendable out) throws IOException {
+
+    write(node.getObj(),out);
+    out.append(node.isPlaced() ? "true" : "false").append("\njava.awt.Point[x=");
+    append(node.getCol(),out);
+    out.append(",y=");
+    append(node.getRow(),out);
+    out.append(']');
+
+  }
+
+  /**
+   * Writes the board of a game as it is shown: evaluated, with the current piece
+   * hovering over it unless the piece is placed.
+   *
+   * @param game the game to write
+   * @param out where the board is written
+   * @throws IOException If out cannot be written to.
+   */
+  public static void writeView(Trichromino game, Appendable out) throws IOException {
+
+    PieceNode<Piece> node = game.getCurrentNode();
+    GameGrid grid = game.getCurrentGame();
+
+    write(node.isPlaced() ? grid.evaluate() : grid.showPiece(node.getObj(),node.getRow(),node.getCol()),out);
+
+  }
+
+  /**
+   * Writes a game: its grid, its current view, its solution and each of its pieces,
+   * separated by blank lines (as Trichromino.toString).
+   *
+   * @param game the game to write
+   * @param out where the game is written
+   * @throws IOException If out cannot be written to.
+   */
+  public static void write(Trichromino game, Appendable out) throws IOException {
+
+    write(game.getCurrentGame(),out);
+    out.append('\n');
+    writeView(game,out);
+    out.append('\n');
+    write(game.getSolution(),out);
+    out.append('\n');
+
+    for (PieceNode<Piece> node : game.getPieces()) {
+      write(node,out);
+      out.append("\n\n");
+    }
+
+  }
+
+  /**
+   * Returns a grid as text (see GameGrid.toString).
+   *
+   * @param grid the grid to write
+   * @return the text of grid.
+   */
+  static String toText(GameGrid grid) {
+
+    StringBuilder text = new StringBuilder(length(grid.getHeight(),grid.getWidth()));
+
+    try {
+      write(grid,text);
+    } catch (IOException e) {
+      throw new AssertionError(e); // StringBuilder does not throw
+    }
+
+    return text.toString();
+
+  }
+
+  /**
+   * Returns a piece as text (see Piece.toString).
+   *
+   * @param piece the piece to write
+   * @return the text of piece.
+   */
+  static String toText(Piece piece) {
+
+    StringBuilder text = new StringBuilder(length(piece.getHeight(),piece.getWidth()));
+
+    try {
+      write(piece,text);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+
+    return text.toString();
+
+  }
+
+  /**
+   * Returns a game as text (see Trichromino.toString).
+   *
+   * @param game the game to write
+   * @return the text of game.
+   */
+  static String toText(Trichromino game) {
+
+    int rows = game.getCurrentGame().getHeight();
+    int cols = game.getCurrentGame().getWidth();
+    StringBuilder text = new StringBuilder(4*length(rows,cols) + 64*game.getPieces().size());
+
+    try {
+      write(game,text);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+
+    return text.toString();
+
+  }
+
+  /**
+   * Returns the number of characters written for a board of the given size, so
+   * that builders may be sized for it.
+   *
+   * @param rows the number of rows of the board
+   * @param cols the number of columns of the board
+   * @return the expected length of the board as text.
+   */
+  private static int length(int rows, int cols) {
+
+    // most squares are one digit and a space
+    return rows*(2*cols + 1);
+
+  }
+
+  /**
+   * Writes a square without creating a string for it.
+   *
+   * @param value the value of the square
+   * @param out where the square is written
+   */
+  private static void append(int value, Appendable out) throws IOException {
+
+    if (out instanceof StringBuilder) {
+
+      ((StringBuilder) out).append(value);
+
+    } else if (value >= 0 && value < 10) {
+
+      out.append((char) ('0' + value));
+
+    } else if (value >= 10 && value < 100) {
+
+      out.append((char) ('0' + value/10)).append((char) ('0' + value%10));
+
+    } else {
+
+      out.append(Integer.toString(value));
+
+    }
+
+  }
+
+  /**
+   * Writes a large generated game to a StringBuilder and to a Writer and reports the
+   * time taken.
+   */
+  public static void main(String[]args) throws Exception {
+
+    int size = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+
+    Trichromino game = new Trichromino();
+    game.generate(Trichromino.CHALLENGE,size);
+
+    long start = System.nanoTime();
+    String text = game.toString();
+    System.out.println(size + "x" + size + " game, " + text.length() + " chars in "
+                         + (System.nanoTime() - start)/1000 + "us");
+
+    StringWriter writer = new StringWriter();
+    start = System.nanoTime();
+    write(game,writer);
+    System.out.println("to a Writer in " + (System.nanoTime() - start)/1000 + "us, same: "
+                         + writer.toString().equals(text));
+
+  }
+
+}
@@ -0,0 +1,450 @@
+/**
+ * DailyPuzzleCache serves the puzzle of the day: for each date, mode and size, the
+ * game generated from a seed derived from all three, so every client plays the
+ * same puzzle without sharing anything but the date.
+ * <p>
+ * Puzzles are kept in memory in a number of independently locked LRU segments, so
+ * concurrent lookups of different puzzles rarely wait on each other and no lock is
+ * held while a puzzle is generated.  Lookups of a puzzle that is still being
+ * generated wait for that generation rather than starting another.  Puzzles may also
+ * be kept on disk (as saved games, see Trichromino.save) so that they outlive the
+ * program.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DailyPuzzleCache {
+
+  public static final int DEFAULT_CAPACITY = 256;
+
+  // number of LRU segments (a power of two).
+  private static final int SEGMENTS = 16;
+
+  private final Segment[] segments;
+  private final ConcurrentHashMap<Long,FutureTask<GameState>> inFlight;
+  private final File directory; // null if puzzles are only kept in memory
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong diskHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Constructor creates a cache keeping up to DEFAULT_CAPACITY puzzles in memory only.
+   */
+  public DailyPuzzleCache() {
+
+    this(DEFAULT_CAPACITY,null);
+
+  }
+
+  /**
+   * Constructor takes the number of puzzles kept in memory and the directory in
+   * which puzzles are kept on disk.
+   *
+   * @param capacity the number of puzzles kept in memory
+   * @param dir the directory of the disk tier (created if needed), or null for none
+   * @throws IllegalArgumentException If capacity is not positive or dir cannot be created.
+   */
+  public DailyPuzzleCache(int capacity, File dir) {
+
+    if (capacity <= 0) throw new IllegalArgumentException("DailyPuzzleCache: capacity must be positive");
+    if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+      throw new IllegalArgumentException("DailyPuzzleCache: cannot create " + dir);
+
+    segments = new Segment[SEGMENTS];
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment((capacity + SEGMENTS - 1)/SEGMENTS);
+    }
+
+    inFlight = new ConcurrentHashMap<Long,FutureTask<GameState>>();
+    directory = dir;
+
+  }
+
+  /**
+   * Returns today's date (in UTC) as an integer yyyymmdd.
+   *
+   * @return the current date.
+   */
+  public static int today() {
+
+    Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+    return calendar.get(Calendar.YEAR)*10000 + (calendar.get(Calendar.MONTH) + 1)*100
+      + calendar.get(Calendar.DAY_OF_MONTH);
+
+  }
+
+  /**
+   * Returns the puzzle of the given date, mode and size, generating it if it is
+   * neither in memory nor on disk.
+   *
+   * @param date the date as an integer yyyymmdd
+   * @param mode Trichromino.BASIC or Trichromino.CHALLENGE
+   * @param size the width and height of the puzzle
+   * @return The (unplayed) state of the puzzle.
+   * @throws IllegalArgumentException If the date, mode or size is not valid.
+   */
+  public GameState get(int date, int mode, int size) {
+
+    long key = key(date,mode,size);
+    Segment segment = segments[spread(key) & (SEGMENTS - 1)];
+
+    GameState state = segment.get(key);
+
+    if (state != null) {
+      hits.incrementAndGet();
+      return state;
+    }
+
+    FutureTask<GameState> task = inFlight.get(key);
+
+    if (task == null) {
+
+      FutureTask<GameState> created = new FutureTask<GameState>(loader(key));
+      task = inFlight.putIfAbsent(key,created);
+
+      if (task == null) {
+
+        task = created;
+
+        try {
+          task.run();
+          segment.put(key,task.get());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          // rethrown below, to every caller waiting on task
+        } finally {
+          inFlight.remove(key);
+        }
+
+      }
+
+    }
+
+    try {
+
+      return task.get();
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("get: interrupted");
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("get: " + e.getCause());
+    }
+
+  }
+
+  /**
+   * Returns a new game of today's puzzle of the given mode and size.
+   *
+   * @param mode Trichromino.BASIC or Trichromino.CHALLENGE
+   * @param size the width and height of the puzzle
+   * @return A game of today's puzzle.
+   * @throws IllegalArgumentException If the mode or size is not valid.
+   */
+  public Trichromino today(int mode, int size) {
+
+    return new Trichromino(get(today(),mode,size));
+
+  }
+
+  /**
+   * Returns the task loading the puzzle with the given key from disk, or generating
+   * (and saving) it if it is not there.
+   *
+   * @param key the key of the puzzle
+   * @return The task loading the puzzle.
+   */
+  private Callable<GameState> loader(final long key) {
+
+    return new Callable<GameState>() {
+
+      public GameState call() throws IOException {
+
+        String name = (directory == null) ? null : new File(directory,fileName(key)).getPath();
+
+        if (name != null && new File(name + ".tcm").isFile()) {
+
+          try {
+            GameState state = Trichromino.fromFile(name).snapshot();
+            diskHits.incrementAndGet();
+            return state;
+          } catch (Exception e) {
+            // unreadable file: generate the puzzle again and overwrite it
+          }
+
+        }
+
+        misses.incrementAndGet();
+
+        Trichromino game = new Trichromino();
+        game.generateSeeded(mode(key),size(key),seed(key));
+
+        if (name != null) {
+
+          // saved under another name first, so no reader sees a partly written file
+          File part = new File(name + ".part.tcm");
+          game.save(name + ".part");
+          File file = new File(name + ".tcm");
+          if (!part.renameTo(file)) {
+            file.delete();
+            part.renameTo(file);
+          }
+
+        }
+
+        return game.snapshot();
+
+      }
+
+    };
+
+  }
+
+  /**
+   * Returns the number of lookups served from memory.
+   *
+   * @return the number of memory hits.
+   */
+  public long getHits() {
+
+    return hits.get();
+
+  }
+
+  /**
+   * Returns the number of puzzles loaded from disk.
+   *
+   * @return the number of disk hits.
+   */
+  public long getDiskHits() {
+
+    return diskHits.get();
+
+  }
+
+  /**
+   * Returns the number of puzzles generated.
+   *
+   * @return the number of lookups served by neither tier.
+   */
+  public long getMisses() {
+
+    return misses.get();
+
+  }
+
+  /**
+   * Returns the number of puzzles kept in memory.
+   *
+   * @return the number of puzzles in the memory tier.
+   */
+  public int size() {
+
+    int size = 0;
+    for (Segment segment : segments) {
+      size += segment.size();
+    }
+
+    return size;
+
+  }
+
+  /**
+   * Packs a date, mode and size into one key.
+   *
+   * @param date the date as an integer yyyymmdd
+   * @param mode Trichromino.BASIC or Trichromino.CHALLENGE
+   * @param size the width and height of the puzzle
+   * @return The key of the puzzle.
+   * @throws IllegalArgumentException If the date, mode or size is not valid.
+   */
+  private static long key(int date, int mode, int size) {
+
+    int month = date/100%100;
+    int day = date%100;
+
+    if (date <= 0 || month < 1 || month > 12 || day < 1 || day > 31)
+      throw new IllegalArgumentException("get: " + date + " is not a valid date (yyyymmdd).");
+    if (mode != Trichromino.BASIC && mode != Trichromino.CHALLENGE)
+      throw new IllegalArgumentException("get: " + mode + " is not a valid mode.");
+    if (size < Trichromino.MIN_SIZE || size > 0xFF)
+      throw new IllegalArgumentException("get: " + size + " is not a valid size.");
+
+    return ((long) date << 16) | (mode << 8) | size;
+
+  }
+
+  private static int date(long key) {
+
+    return (int) (key >>> 16);
+
+  }
+
+  private static int mode(long key) {
+
+    return (int) (key >>> 8) & 0xFF;
+
+  }
+
+  private static int size(long key) {
+
+    return (int) key & 0xFF;
+
+  }
+
+  /**
+   * Returns the seed of the puzzle with the given key (the same on every machine).
+   *
+   * @param key the key of the puzzle
+   * @return The seed of the generator.
+   */
+  private static long seed(long key) {
+
+    long seed = key*0x9E3779B97F4A7C15L;
+
+    return seed ^ (seed >>> 29);
+
+  }
+
+  /**
+   * Mixes the bits of a key so that keys differing only in their date are spread
+   * over the segments.
+   *
+   * @param key the key of the puzzle
+   * @return The mixed key.
+   */
+  private static int spread(long key) {
+
+    long h = key*0x9E3779B97F4A7C15L;
+
+    return (int) (h >>> 40);
+
+  }
+
+  /**
+   * Returns the name (without extension) of the file of the puzzle with the given key.
+   *
+   * @param key the key of the puzzle
+   * @return The file name of the puzzle.
+   */
+  private static String fileName(long key) {
+
+    return "daily-" + date(key) + "-" + mode(key) + "-" + size(key);
+
+  }
+
+  /**
+   * One segment of the memory tier: an LRU map of its own capacity under its own lock.
+   */
+  private static class Segment {
+
+    private final LinkedHashMap<Long,GameState> map;
+
+    Segment(final int capacity) {
+
+      map = new LinkedHashMap<Long,GameState>(16,0.75f,true) {
+
+        private static final long serialVersionUID = 1;
+
+        protected boolean removeEldestEntry(Map.Entry<Long,GameState> eldest) {
+
+          return size() > capacity;
+
+        }
+
+      };
+
+    }
+
+    synchronized GameState get(long key) {
+
+      return map.get(key);
+
+    }
+
+    synchronized void put(long key, GameState state) {
+
+      map.put(key,state);
+
+    }
+
+    synchronized int size() {
+
+      return map.size();
+
+    }
+
+  }
+
+  /**
+   * Looks up a week of puzzles from many threads at once, checks that a puzzle
+   * generated twice is the same and that it survives a restart on disk.
+   */
+  public static void main(String[]args) throws Exception {
+
+    File dir = new File(System.getProperty("java.io.tmpdir"),"trichromino-daily");
+    final DailyPuzzleCache cache = new DailyPuzzleCache(DEFAULT_CAPACITY,dir);
+    final int threads = 8;
+    final int lookups = 20000;
+    final AtomicInteger next = new AtomicInteger();
+
+    Thread[] clients = new Thread[threads];
+    long start = System.nanoTime();
+
+    for (int t = 0; t < threads; t++) {
+
+      clients[t] = new Thread() {
+
+        public void run() {
+
+          for (int i = next.getAndIncrement(); i < lookups; i = next.getAndIncrement()) {
+            cache.get(20260101 + i%7,i%2,Trichromino.EASY_SIZE);
+          }
+
+        }
+
+      };
+
+      clients[t].start();
+
+    }
+
+    for (Thread client : clients) {
+      client.join();
+    }
+
+    long elapsed = System.nanoTime() - start;
+    System.out.println(lookups + " lookups in " + elapsed/1000000 + "ms: " + cache.getHits() + " hits, "
+                         + cache.getDiskHits() + " from disk, " + cache.getMisses() + " generated");
+
+    DailyPuzzleCache restarted = new DailyPuzzleCache(DEFAULT_CAPACITY,dir);
+    DailyPuzzleCache memoryOnly = new DailyPuzzleCache();
+
+    GameState puzzle = cache.get(20260103,Trichromino.CHALLENGE,Trichromino.EASY_SIZE);
+    System.out.println(puzzle.getHash() == restarted.get(20260103,Trichromino.CHALLENGE,Trichromino.EASY_SIZE).getHash());
+    System.out.println(puzzle.getHash() == memoryOnly.get(20260103,Trichromino.CHALLENGE,Trichromino.EASY_SIZE).getHash());
+    System.out.println(restarted.getDiskHits() + " from disk, " + memoryOnly.getMisses() + " generated");
+
+    System.out.println(cache.today(Trichromino.BASIC,Trichromino.EASY_SIZE));
+
+  }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * DifficultyRater rates how hard a puzzle is by solving it and measuring the
+ * search: how many placements had to be undone (backtracks) and how many of the
+ * open squares could be filled by more than one piece (choices not forced by
+ * the shade constraints).
+ * <p>
+ * Ratings range from MIN_RATING (every move forced) to MAX_RATING.  The search
+ * is capped by a node limit, so rating a puzzle costs a bounded amount of time;
+ * puzzles reaching the limit are given MAX_RATING.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+public class DifficultyRater {
+
+  public static final int MIN_RATING = 1;
+  public static final int MAX_RATING = 10;
+
+  private long nodeLimit;
+
+  private final long DEFAULT_LIMIT = 20000;
+
+  // weights of the measures making up a rating.
+  private final double BACKTRACK_WEIGHT = 1.5;
+  private final double CHOICE_WEIGHT = 4;
+
+  /**
+   * Default constructor uses the default node limit.
+   */
+  public DifficultyRater() {
+
+    nodeLimit = DEFAULT_LIMIT;
+
+  }
+
+  /**
+   * Sets the number of placements after which a search is given up (and the puzzle
+   * given MAX_RATING).
+   *
+   * @param limit the node limit of each search
+   * @throws IllegalArgumentException If limit is not positive.
+   */
+  public void setNodeLimit(long limit) {
+
+    if (limit <= 0) throw new IllegalArgumentException("setNodeLimit: limit must be positive");
+
+    nodeLimit = limit;
+
+  }
+
+  /**
+   * Rates the puzzle of the given game (regardless of the pieces placed so far).
+   *
+   * @param game the target game
+   * @return the rating of the puzzle.
+   * @throws IllegalStateException If the game is empty.
+   */
+  public int rate(Trichromino game) {
+
+    if (game.isEmpty()) throw new IllegalStateException("rate: Game is current empty");
+
+    LinkedList<Piece> pieces = new LinkedList<Piece>();
+    for (PieceNode<Piece> node : game.getPieces()) {
+      pieces.add(node.getObj());
+    }
+
+    return rate(game.getCurrentGame().trapsOnly(),pieces,game.getSolution());
+
+  }
+
+  /**
+   * Rates the puzzle of placing the given pieces on board to match target.
+   *
+   * @param board the starting board
+   * @param pieces the pieces to be placed
+   * @param target the evaluated grid to be matched
+   * @return the rating of the puzzle.
+   */
+  public int rate(GameGrid board, List<Piece> pieces, int[][] target) {
+
+    Solver solver = new Solver(board,pieces,target);
+    solver.setNodeLimit(nodeLimit);
+
+    if (solver.solve() == null) return MAX_RATING;
+
+    return rating(solver);
+
+  }
+
+  /**
+   * Combines the statistics of a successful search into a rating.
+   *
+   * @param solver the solver after its search
+   * @return the rating of the solved puzzle.
+   */
+  private int rating(Solver solver) {
+
+    double backtracks = Math.log(1 + solver.getBacktracks())/Math.log(2);
+    double choices = (solver.getDecisions() == 0) ? 0
+      : 1 - (double) solver.getForcedMoves()/solver.getDecisions();
+
+    long rating = MIN_RATING + Math.round(BACKTRACK_WEIGHT*backtracks + CHOICE_WEIGHT*choices);
+
+    return (int) Math.min(rating,MAX_RATING);
+
+  }
+
+  /**
+   * Rates a number of generated games of both modes.
+   */
+  public static void main(String[]args) {
+
+    DifficultyRater rater = new DifficultyRater();
+    int[] basic = new int[MAX_RATING + 1];
+    int[] challenge = new int[MAX_RATING + 1];
+
+    long start = System.nanoTime();
+
+    for (int i = 0; i < 200; i++) {
+
+      Trichromino game = new Trichromino();
+
+      game.generate(Trichromino.BASIC);
+      basic[rater.rate(game)]++;
+
+      game.generate(Trichromino.CHALLENGE);
+      challenge[rater.rate(game)]++;
+
+    }
+
+    System.out.println("basic:     " + Arrays.toString(basic));
+    System.out.println("challenge: " + Arrays.toString(challenge));
+    System.out.println((System.nanoTime() - start)/400000 + "us per game (generation and rating)");
+
+    Trichromino hard = new Trichromino();
+    System.out.println(hard.generate(Trichromino.CHALLENGE,6,MAX_RATING) + " " + rater.rate(hard));
+
+  }
+
+}
@@ -0,0 +1,374 @@
+/**
+ * EventLog records events of the program (actions of the player, errors) without
+ * ever making the calling thread wait on output.
+ * <p>
+ * An event is a level, a name and at most one field (key=value).  Logging an event
+ * only stores it in a fixed-size ring buffer, claimed without locks; a daemon thread
+ * formats and writes the buffered events.  If the buffer is full the event is
+ * dropped (and counted) rather than blocking the caller, so the Swing event thread
+ * never stalls on the console.  Fields are formatted by the writing thread, so only
+ * values that do not change (strings, numbers, exceptions...) should be logged.
+ * <p>
+ * Events below the level given by -Dtrichromino.log (DEBUG, INFO, WARN, ERROR or
+ * OFF; INFO by default) are discarded at once.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+public final class EventLog {
+
+  public static final int DEBUG = 0;
+  public static final int INFO = 1;
+  public static final int WARN = 2;
+  public static final int ERROR = 3;
+  public static final int OFF = 4;
+
+  private static final String[] LEVELS = {"DEBUG","INFO","WARN","ERROR","OFF"};
+
+  // size of the ring buffer (a power of two).
+  private static final int CAPACITY = 1024;
+  private static final int MASK = CAPACITY - 1;
+
+  // how long the writer sleeps when there is nothing to write (ns).
+  private static final long IDLE_WAIT = 1000000;
+
+  private static volatile int level = parseLevel(System.getProperty("trichromino.log"));
+  private static volatile PrintStream out = System.out;
+
+  private static final AtomicReferenceArray<Event> ring = new AtomicReferenceArray<Event>(CAPACITY);
+  private static final AtomicLong tail = new AtomicLong(); // next slot to claim
+  private static volatile long head; // next slot to write (only the writer changes it)
+  private static final AtomicLong dropped = new AtomicLong();
+
+  static {
+
+    Thread writer = new Thread("trichromino-log") {
+
+      public void run() {
+
+        drain();
+
+      }
+
+    };
+
+    writer.setDaemon(true);
+    writer.start();
+
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+
+      public void run() {
+
+        flush(100);
+
+      }
+
+    });
+
+  }
+
+  private EventLog() {
+
+  }
+
+  /**
+   * Returns the level parsed from its name (INFO if the name is not a level).
+   *
+   * @param name the name of a level
+   * @return the level with that name.
+   */
+  private static int parseLevel(String name) {
+
+    for (int i = 0; i < LEVELS.length; i++) {
+      if (LEVELS[i].equalsIgnoreCase(name)) return i;
+    }
+
+    return INFO;
+
+  }
+
+  /**
+   * Sets the lowest level of the events kept.
+   *
+   * @param lowest DEBUG, INFO, WARN, ERROR or OFF
+   * @throws IllegalArgumentException If lowest is not a level.
+   */
+  public static void setLevel(int lowest) {
+
+    if (lowest < DEBUG || lowest > OFF) throw new IllegalArgumentException("setLevel: " + lowest + " is not a level.");
+
+    level = lowest;
+
+  }
+
+  /**
+   * Sets the stream to which events are written (System.out by default).
+   *
+   * @param stream the stream receiving the events
+   */
+  public static void setOutput(PrintStream stream) {
+
+    out = stream;
+
+  }
+
+  /**
+   * Determines whether or not events of the given level are kept.  Callers should
+   * check this before building a costly message.
+   *
+   * @param at the level of an event
+   * @return true if events of that level are logged.
+   */
+  public static boolean isEnabled(int at) {
+
+    return at >= level;
+
+  }
+
+  /**
+   * Logs an event at level DEBUG.
+   *
+   * @param event the name of the event
+   */
+  public static void debug(String event) {
+
+    log(DEBUG,event,null,null);
+
+  }
+
+  /**
+   * Logs an event at level INFO.
+   *
+   * @param event the name of the event
+   */
+  public static void info(String event) {
+
+    log(INFO,event,null,null);
+
+  }
+
+  /**
+   * Logs an event with one field at level INFO.
+   *
+   * @param event the name of the event
+   * @param key the name of the field
+   * @param value the value of the field
+   */
+  public static void info(String event, String key, Object value) {
+
+    log(INFO,event,key,value);
+
+  }
+
+  /**
+   * Logs an event with one field at level WARN.
+   *
+   * @param event the name of the event
+   * @param key the name of the field
+   * @param value the value of the field
+   */
+  public static void warn(String event, String key, Object value) {
+
+    log(WARN,event,key,value);
+
+  }
+
+  /**
+   * Logs an event with one field at level ERROR.
+   *
+   * @param event the name of the event
+   * @param key the name of the field
+   * @param value the value of the field
+   */
+  public static void error(String event, String key, Object value) {
+
+    log(ERROR,event,key,value);
+
+  }
+
+  /**
+   * Logs an event, unless its level is not enabled or the buffer is full.
+   *
+   * @param at the level of the event
+   * @param event the name of the event
+   * @param key the name of the field of the event (null for none)
+   * @param value the value of the field
+   */
+  public static void log(int at, String event, String key, Object value) {
+
+    if (at < level || at >= OFF) return;
+
+    Event e = new Event(System.currentTimeMillis(),at,Thread.currentThread().getName(),event,key,value);
+
+    long slot;
+    do {
+
+      slot = tail.get();
+
+      if (slot - head >= CAPACITY) {
+        dropped.incrementAndGet();
+        return;
+      }
+
+    } while (!tail.compareAndSet(slot,slot + 1));
+
+    ring.lazySet((int) slot & MASK,e);
+
+  }
+
+  /**
+   * Returns the number of events dropped because the buffer was full.
+   *
+   * @return the number of events lost.
+   */
+  public static long getDropped() {
+
+    return dropped.get();
+
+  }
+
+  /**
+   * Waits until every event logged so far has been written, or the given time has
+   * passed.
+   *
+   * @param timeout the longest time to wait in milliseconds
+   * @return true if every event was written.
+   */
+  public static boolean flush(long timeout) {
+
+    long target = tail.get();
+    long deadline = System.nanoTime() + timeout*1000000L;
+
+    while (head < target) {
+
+      if (System.nanoTime() > deadline) return false;
+      LockSupport.parkNanos(IDLE_WAIT);
+
+    }
+
+    return true;
+
+  }
+
+  /**
+   * Writes events as they are logged, forever (run by the writer thread).
+   */
+  private static void drain() {
+
+    SimpleDateFormat time = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    time.setTimeZone(TimeZone.getTimeZone("UTC"));
+    StringBuilder line = new StringBuilder(128);
+    Date date = new Date();
+
+    while (true) {
+
+      int index = (int) head & MASK;
+      Event e = ring.get(index);
+
+      if (e == null) {
+
+        // claimed slots are filled shortly after, so waiting here is brief
+        if (head == tail.get()) out.flush();
+        LockSupport.parkNanos(IDLE_WAIT);
+        continue;
+
+      }
+
+      ring.lazySet(index,null);
+
+      date.setTime(e.time);
+      line.setLength(0);
+      line.append(time.format(date)).append(' ').append(LEVELS[e.level]).append(" [").append(e.thread).append("] ")
+        .append(e.event);
+      if (e.key != null) line.append(' ').append(e.key).append('=').append(e.value);
+
+      out.println(line);
+      head++;
+
+      long lost = dropped.getAndSet(0);
+      if (lost > 0) out.println(time.format(date) + " WARN [trichromino-log] dropped count=" + lost);
+
+    }
+
+  }
+
+  /**
+   * An event waiting to be written.
+   */
+  private static final class Event {
+
+    final long time;
+    final int level;
+    final String thread;
+    final String event;
+    final String key;
+    final Object value;
+
+    Event(long time, int level, String thread, String event, String key, Object value) {
+
+      this.time = time;
+      this.level = level;
+      this.thread = thread;
+      this.event = event;
+      this.key = key;
+      this.value = value;
+
+    }
+
+  }
+
+  /**
+   * Logs events from several threads as fast as possible and reports how long the
+   * loggers took and how many events were dropped.
+   */
+  public static void main(String[]args) throws Exception {
+
+    info("started","threads",4);
+    debug("not shown unless -Dtrichromino.log=debug");
+
+    final int events = 100000;
+    Thread[] threads = new Thread[4];
+    long start = System.nanoTime();
+
+    for (int t = 0; t < threads.length; t++) {
+
+      threads[t] = new Thread("logger-" + t) {
+
+        public void run() {
+
+          for (int i = 0; i < events; i++) {
+            info("moved","direction",(i%2 == 0) ? "up" : "down");
+          }
+
+        }
+
+      };
+
+      threads[t].start();
+
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    long elapsed = System.nanoTime() - start;
+    long lost = getDropped();
+
+    flush(10000);
+    System.err.println(threads.length*events + " events logged in " + elapsed/1000000 + "ms ("
+                         + elapsed/(threads.length*events) + "ns each), at least " + lost + " dropped");
+
+  }
+
+}
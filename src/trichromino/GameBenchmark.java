@@ -0,0 +1,329 @@
+/**
+ * GameBenchmark times the core operations of the game model on boards of
+ * several sizes, giving a baseline against which changes to the model can be
+ * judged.
+ * <p>
+ * Every case is run repeatedly for a warm-up period (letting the JIT compile
+ * it) and then for a number of measured rounds; the mean and best time per
+ * operation over the rounds are reported.  Boards are generated from fixed
+ * seeds so that runs are comparable.
+ * <p>
+ * Boards of LARGE_SIZE or more take too long to generate, so only evaluation is
+ * timed on them, on boards of random squares.
+ * <p>
+ * Usage: java trichromino.GameBenchmark [size ...] (default 10 25 50 100 256 1024)
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.awt.Point;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.LinkedList;
+import java.util.Random;
+
+public class GameBenchmark {
+
+  private static final long WARMUP_NANOS = 500000000L;
+  private static final long ROUND_NANOS = 200000000L;
+  private static final int ROUNDS = 5;
+
+  private static final long SEED = 42;
+
+  // smallest board on which only evaluation is timed.
+  private static final int LARGE_SIZE = 256;
+
+  // results are folded into this field so the JIT cannot discard the work.
+  private static volatile long sink;
+
+  /**
+   * A single benchmarked operation.
+   */
+  private abstract static class Case {
+
+    private final String name;
+
+    /**
+     * Constructor takes the name under which the case is reported.
+     *
+     * @param name the name of this case
+     */
+    Case(String name) {
+
+      this.name = name;
+
+    }
+
+    /**
+     * Performs the operation once.
+     *
+     * @return a value depending on the result of the operation.
+     */
+    abstract long run() throws Exception;
+
+  }
+
+  /**
+   * Times a case, printing the mean and best time per operation.
+   *
+   * @param c the case being timed
+   * @param size the size of the board used by the case
+   */
+  private static void measure(Case c, int size) throws Exception {
+
+    long acc = 0;
+
+    long end = System.nanoTime() + WARMUP_NANOS;
+    while (System.nanoTime() < end) {
+      acc += c.run();
+    }
+
+    double best = Double.MAX_VALUE;
+    double total = 0;
+
+    for (int round = 0; round < ROUNDS; round++) {
+
+      long ops = 0;
+      long start = System.nanoTime();
+      long now = start;
+
+      while (now - start < ROUND_NANOS) {
+        for (int i = 0; i < 16; i++) {
+          acc += c.run();
+        }
+        ops += 16;
+        now = System.nanoTime();
+      }
+
+      double perOp = (double) (now - start)/ops;
+      best = Math.min(best,perOp);
+      total += perOp;
+
+    }
+
+    sink += acc;
+
+    System.out.println(String.format("%-24s %6d %14.1f %14.1f", c.name, size, total/ROUNDS, best));
+
+  }
+
+  /**
+   * Generates a challenge grid of the given size from the benchmark seed.
+   *
+   * @param size the number of rows and columns of the grid
+   * @return the generated grid (pieces placed).
+   */
+  static GameGrid generated(int size) {
+
+    GameGrid grid = new GameGrid(size,size);
+    new BasicGameGenerator(grid,SEED + size).sEasyGrid();
+
+    return grid;
+
+  }
+
+  /**
+   * Creates a grid of the given size with random squares: a fifth each white,
+   * black, trap and covered trap, the rest empty.
+   *
+   * @param size the number of rows and columns of the grid
+   * @return the random grid.
+   */
+  static GameGrid random(int size) {
+
+    GameGrid grid = new GameGrid(size,size);
+    Random random = new Random(SEED + size);
+
+    Piece white = new Piece(1,1,1);
+    white.addSquare(0,0);
+
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+
+        switch (random.nextInt(5)) {
+          case 0 : grid.setWhite(i,j); break;
+          case 1 : grid.setBlack(i,j); break;
+          case 2 : grid.setTrap(i,j); break;
+          case 3 : grid.setTrap(i,j); grid.addPiece(white,i,j); break;
+          default : break;
+        }
+
+      }
+    }
+
+    return grid;
+
+  }
+
+  /**
+   * Creates the evaluation cases for a grid: evaluate, evaluation one square at a
+   * time and in parallel bands for comparison, and matches.
+   *
+   * @param grid the grid evaluated
+   * @return the cases to be timed.
+   */
+  private static LinkedList<Case> evaluateCases(final GameGrid grid) {
+
+    LinkedList<Case> cases = new LinkedList<Case>();
+    final int last = grid.getHeight() - 1;
+    final int[][] target = grid.evaluate();
+
+    cases.add(new Case("evaluate") {
+      long run() {
+        return grid.evaluate()[last][last];
+      }
+    });
+
+    cases.add(new Case("evaluate (scalar)") {
+      long run() {
+        return grid.evaluateScalar()[last][last];
+      }
+    });
+
+    cases.add(new Case("evaluate (parallel)") {
+      long run() {
+        return BitboardEvaluator.evaluateParallel(grid.getCells(),grid.getHeight(),grid.getWidth())[last][last];
+      }
+    });
+
+    cases.add(new Case("matches") {
+      long run() {
+        return grid.matches(target) ? 1 : 0;
+      }
+    });
+
+    return cases;
+
+  }
+
+  /**
+   * Creates the cases for a board of the given size.
+   *
+   * @param size the number of rows and columns of the board
+   * @return the cases to be timed.
+   */
+  private static LinkedList<Case> cases(final int size) throws Exception {
+
+    LinkedList<Case> cases = new LinkedList<Case>();
+
+    final GameGrid full = generated(size);
+
+    final GameGrid empty = full.trapsOnly();
+    final Random random = new Random(SEED);
+
+    // a small piece tried at every position of the boards.
+    Piece s = new Piece(3,3,3);
+    s.addSquare(0,0);
+    s.addSquare(1,0);
+    s.addSquare(1,1);
+    final Piece small = s.crop();
+
+    // an uncropped piece with a random shape spread over a board sized matrix.
+    final Piece loose = new Piece(size,size,1);
+    for (int i = 0; i < size; i++) {
+      loose.addSquare(random.nextInt(size),random.nextInt(size));
+    }
+
+    cases.addAll(evaluateCases(full));
+
+    cases.add(new Case("pieceFits") {
+      int at = 0;
+      long run() {
+        at = (at + 1)%((size-1)*(size-1));
+        return full.pieceFits(small,new Point(at%(size-1),at/(size-1))) ? 1 : 0;
+      }
+    });
+
+    cases.add(new Case("addPiece/removePiece") {
+      int at = 0;
+      long run() {
+        at = (at + 1)%((size-1)*(size-1));
+        PieceNode<Piece> node = empty.addPiece(small,new Point(at%(size-1),at/(size-1)));
+        if (node != null) empty.removePiece(node);
+        return empty.getHash();
+      }
+    });
+
+    cases.add(new Case("clone") {
+      long run() {
+        return full.clone().getHash();
+      }
+    });
+
+    final GameGrid copy = new GameGrid(size,size);
+    cases.add(new Case("copyInto") {
+      long run() {
+        full.copyInto(copy);
+        return copy.getHash();
+      }
+    });
+
+    cases.add(new Case("Piece.crop") {
+      long run() {
+        return loose.crop().getWidth();
+      }
+    });
+
+    cases.add(new Case("easyGrid") {
+      long seed = SEED;
+      long run() {
+        GameGrid grid = new GameGrid(size,size);
+        return new BasicGameGenerator(grid,seed++).easyGrid().getHash();
+      }
+    });
+
+    cases.add(new Case("sEasyGrid") {
+      long seed = SEED;
+      long run() {
+        GameGrid grid = new GameGrid(size,size);
+        return new BasicGameGenerator(grid,seed++).sEasyGrid().getHash();
+      }
+    });
+
+    cases.add(new Case("save/load") {
+      long run() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(full);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        GameGrid copy = (GameGrid) in.readObject();
+        in.close();
+        return copy.getHash();
+      }
+    });
+
+    return cases;
+
+  }
+
+  /**
+   * Runs every case on boards of each of the given sizes.
+   */
+  public static void main(String[]args) throws Exception {
+
+    int[] sizes = {10, 25, 50, 100, 256, 1024};
+
+    if (args.length > 0) {
+      sizes = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    System.out.println(String.format("%-24s %6s %14s %14s", "case", "size", "mean ns/op", "best ns/op"));
+
+    for (int size : sizes) {
+      for (Case c : (size < LARGE_SIZE) ? cases(size) : evaluateCases(random(size))) {
+        measure(c,size);
+      }
+    }
+
+  }
+
+}
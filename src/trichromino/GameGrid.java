@@ -6,6 +6,9 @@
  * A array correspondence of a visual representation of a grid can be generated. However, 
  * the grid itself is stored with all squares represented as an integer corresponding to
  * their respective original colours.
+ * <p>
+ * The squares are stored as a single byte array, row by row; getGrid builds the
+ * int[][] form when it is first asked for and keeps it up to date from then on.
  * 
  * @author Lisa Li (primary creator)
  * @author Angela Wu
@@ -14,6 +17,10 @@
 
 package trichromino;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.LinkedList;
@@ -22,10 +29,15 @@ import java.awt.Point;
 public class GameGrid implements Serializable, Cloneable {
   
   // instance variables
-  private int[][] grid;
+  private byte[] cells; // the squares, row-major (MAX_WIDTH squares per row)
+  private transient int[][] grid; // built by getGrid
   private LinkedList<PieceNode<Piece>> pieces;
+  
+  // Zobrist hash of the grid contents, kept up to date on every change
+  // to a square and rebuilt after deserialization.
+  private transient long hash;
  
-  private final int MAX_WIDTH, MAX_HEIGHT;
+  private int MAX_WIDTH, MAX_HEIGHT;
   private final int EMPTY = 0;
   
   // "color" integer identifiers
@@ -44,9 +56,37 @@ public class GameGrid implements Serializable, Cloneable {
   // for getAdjacent.
   private final int NUM_VALUES = 4;
   
+  // directions of adjacent squares, as the bits of the masks of adjacentMask.
+  public static final int ADJ_UP = 1;
+  public static final int ADJ_LEFT = 2;
+  public static final int ADJ_DOWN = 4;
+  public static final int ADJ_RIGHT = 8;
+  
   // for serialization
   private static final long serialVersionUID = 1;
   
+  // the squares are written as an int[][] so that saved games remain readable.
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("grid", int[][].class),
+    new ObjectStreamField("pieces", LinkedList.class),
+    new ObjectStreamField("MAX_WIDTH", Integer.TYPE),
+    new ObjectStreamField("MAX_HEIGHT", Integer.TYPE),
+    new ObjectStreamField("EMPTY", Integer.TYPE),
+    new ObjectStreamField("WHITE", Integer.TYPE),
+    new ObjectStreamField("BLACK", Integer.TYPE),
+    new ObjectStreamField("GRAY", Integer.TYPE),
+    new ObjectStreamField("TRAP", Integer.TYPE),
+    new ObjectStreamField("T_BLACK", Integer.TYPE),
+    new ObjectStreamField("T_WHITE", Integer.TYPE),
+    new ObjectStreamField("OFFSET_FACTOR", Integer.TYPE),
+    new ObjectStreamField("NUM_VALUES", Integer.TYPE)
+  };
+  
+  private static final Metrics.Timer EVALUATE_TIME = Metrics.timer("grid.evaluate");
+  
+  // smallest grid (in squares) evaluated by BitboardEvaluator.
+  static final int BITBOARD_CELLS = 64;
+  
   
   /**
    * Creates an empty GameGrid with n rows and m columns
@@ -56,7 +96,7 @@ public class GameGrid implements Serializable, Cloneable {
    */
   public GameGrid(int rows, int cols) { 
     
-    grid = new int[rows][cols];
+    cells = new byte[rows*cols];
     pieces = new LinkedList<PieceNode<Piece>>();
     
     MAX_WIDTH = cols;
@@ -65,16 +105,49 @@ public class GameGrid implements Serializable, Cloneable {
   }
   
   /**
-   * Returns an array representation of this grid.
+   * Returns an array representation of this grid.  The array is built on the first
+   * call and kept up to date afterwards; it must not be changed.
    * 
    * @return the array representation of this grid
    */  
   public int[][] getGrid() {
     
+    if (grid == null) grid = toArray();
+    
     return grid;
     
   }
   
+  /**
+   * Copies the squares of this grid into a new array.
+   * 
+   * @return a new array of the squares of this grid, row by row.
+   */
+  private int[][] toArray() {
+    
+    int[][] view = new int[MAX_HEIGHT][MAX_WIDTH];
+    for (int i = 0; i < MAX_HEIGHT ; i++) {
+      for (int j = 0; j < MAX_WIDTH ; j++) {
+        view[i][j] = cells[i*MAX_WIDTH + j];
+      }
+    }
+    
+    return view;
+    
+  }
+  
+  /**
+   * Returns the squares of this grid row by row (getWidth squares per row), as used by
+   * the evaluator and the solvers.  The array must not be changed.
+   * 
+   * @return the backing array of this grid.
+   */
+  byte[] getCells() {
+    
+    return cells;
+    
+  }
+  
   /**
    * Gets the width of this grid.
    * 
@@ -98,6 +171,124 @@ public class GameGrid implements Serializable, Cloneable {
   }
   
   
+  /**
+   * Returns the Zobrist hash of this grid.  Two grids holding the same squares
+   * and traps in the same positions always share a hash, regardless of the order
+   * in which the squares were placed.
+   * 
+   * @return the Zobrist hash of this grid.
+   */
+  public long getHash() {
+    
+    return hash;
+    
+  }
+  
+  /**
+   * Adds delta to the value stored at the specified location, updating the hash
+   * of this grid accordingly.
+   * 
+   * @param row the target row
+   * @param col the target column
+   * @param delta the amount added to the stored value
+   */
+  private void change(int row, int col, int delta) {
+    
+    int cell = row*MAX_WIDTH + col;
+    int old = cells[cell];
+    
+    cells[cell] = (byte) (old + delta);
+    if (grid != null) grid[row][col] = old + delta;
+    hash ^= Zobrist.key(cell,old) ^ Zobrist.key(cell,old + delta);
+    
+  }
+  
+  /**
+   * Recomputes the hash of this grid from scratch.
+   */
+  private void rehash() {
+    
+    hash = 0;
+    
+    for (int i = 0; i < MAX_HEIGHT ; i++) {
+      for (int j = 0; j < MAX_WIDTH ; j++) {
+        
+        hash ^= Zobrist.key(i*MAX_WIDTH + j, cells[i*MAX_WIDTH + j]);
+        
+      }
+    }
+    
+  }
+  
+  /**
+   * Returns the index in cells of the specified location.
+   * 
+   * @param row the target row
+   * @param col the target column
+   * @return the row-major index of the location.
+   * @throws ArrayIndexOutOfBoundsException if the target position is not on the grid
+   */
+  private int index(int row, int col) {
+    
+    if (row >= MAX_HEIGHT || col >= MAX_WIDTH || row < 0 || col < 0) 
+      throw new ArrayIndexOutOfBoundsException("index: row = " + row + "; col = " + col);
+    
+    return row*MAX_WIDTH + col;
+    
+  }
+  
+  /**
+   * Writes this grid with its squares as an int[][] (see serialPersistentFields),
+   * without keeping the array view of getGrid if it has not been built.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("grid",(grid != null) ? grid : toArray());
+    fields.put("pieces",pieces);
+    fields.put("MAX_WIDTH",MAX_WIDTH);
+    fields.put("MAX_HEIGHT",MAX_HEIGHT);
+    fields.put("EMPTY",EMPTY);
+    fields.put("WHITE",WHITE);
+    fields.put("BLACK",BLACK);
+    fields.put("GRAY",GRAY);
+    fields.put("TRAP",TRAP);
+    fields.put("T_BLACK",T_BLACK);
+    fields.put("T_WHITE",T_WHITE);
+    fields.put("OFFSET_FACTOR",OFFSET_FACTOR);
+    fields.put("NUM_VALUES",NUM_VALUES);
+    out.writeFields();
+    
+  }
+  
+  /**
+   * Reads a grid written by writeObject and restores its (transient) hash.
+   */
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    
+    ObjectInputStream.GetField fields = in.readFields();
+    pieces = (LinkedList<PieceNode<Piece>>) fields.get("pieces",null);
+    MAX_WIDTH = fields.get("MAX_WIDTH",0);
+    MAX_HEIGHT = fields.get("MAX_HEIGHT",0);
+    
+    int[][] view = (int[][]) fields.get("grid",null);
+    if (pieces == null || view == null || view.length != MAX_HEIGHT) throw new IOException("readObject: damaged grid");
+    
+    cells = new byte[MAX_HEIGHT*MAX_WIDTH];
+    for (int i = 0; i < MAX_HEIGHT ; i++) {
+      
+      if (view[i].length != MAX_WIDTH) throw new IOException("readObject: damaged grid");
+      for (int j = 0; j < MAX_WIDTH ; j++) {
+        cells[i*MAX_WIDTH + j] = (byte) view[i][j];
+      }
+      
+    }
+    
+    rehash();
+    
+  }
+  
   /**
    * Creates a white square in the specified location.
    * 
@@ -109,7 +300,7 @@ public class GameGrid implements Serializable, Cloneable {
     
     if (!isEmptySquare(row,col)) throw new IllegalStateException("setWhite: Space is already occupied");
     
-    grid[row][col] += WHITE;
+    change(row,col,WHITE);
         
   }
   
@@ -122,7 +313,8 @@ public class GameGrid implements Serializable, Cloneable {
    */
   public boolean isWhite(int row, int col) {
     
-    return (grid[row][col] == WHITE || grid[row][col] == T_WHITE) ;
+    int value = cells[index(row,col)];
+    return (value == WHITE || value == T_WHITE) ;
     
   }
   
@@ -137,7 +329,7 @@ public class GameGrid implements Serializable, Cloneable {
     
     if (!isWhite(row,col)) throw new IllegalStateException("removeWhite: Space is unoccupied by white square.");
     
-    grid[row][col] -= WHITE;
+    change(row,col,-WHITE);
     
   }
   
@@ -152,7 +344,7 @@ public class GameGrid implements Serializable, Cloneable {
     
     if (!isEmptySquare(row,col)) throw new IllegalStateException("setBlack: Space is already occupied");
     
-    grid[row][col] += BLACK;
+    change(row,col,BLACK);
     
   }
   
@@ -165,7 +357,8 @@ public class GameGrid implements Serializable, Cloneable {
    */
   public boolean isBlack(int row, int col) {
     
-    return (grid[row][col] == BLACK || grid[row][col] == T_BLACK) ;
+    int value = cells[index(row,col)];
+    return (value == BLACK || value == T_BLACK) ;
     
   }
   
@@ -180,7 +373,7 @@ public class GameGrid implements Serializable, Cloneable {
     
     if (!isBlack(row,col)) throw new IllegalStateException("removeBlack: Space is unoccupied by black square.");
     
-    grid[row][col] -= BLACK;
+    change(row,col,-BLACK);
     
   }
   
@@ -195,7 +388,7 @@ public class GameGrid implements Serializable, Cloneable {
     
     if (hasTrap(row,col)) throw new IllegalStateException("setTrap: There is already a trap");
     
-    grid[row][col] += TRAP;
+    change(row,col,TRAP);
     
   }
   
@@ -208,7 +401,7 @@ public class GameGrid implements Serializable, Cloneable {
    */
   public boolean hasTrap(int row, int col) {
     
-    return grid[row][col] >= TRAP;
+    return cells[index(row,col)] >= TRAP;
     
   }
   
@@ -223,7 +416,7 @@ public class GameGrid implements Serializable, Cloneable {
     
     if (!hasTrap(row,col)) throw new IllegalStateException("removeTrap: Space is not a trap.");
     
-    grid[row][col] -= TRAP;
+    change(row,col,-TRAP);
     
   }
   
@@ -236,7 +429,8 @@ public class GameGrid implements Serializable, Cloneable {
    */
   public boolean isEmptySquare(int row, int col) {
     
-    return (grid[row][col] == EMPTY || grid[row][col] == TRAP);
+    int value = cells[index(row,col)];
+    return (value == EMPTY || value == TRAP);
     
   }
   
@@ -248,30 +442,48 @@ public class GameGrid implements Serializable, Cloneable {
    * @throws IllegalArgumentException If the piece is empty.
    * @throws IndexOutOfBoundsException If the piece does not fit in this grid.
    * @throws IllegalStateException If the piece is overlapping an occupied space.
+   * @return The node corresponding to the added piece (null if the piece does not fit).
    */
-  public void addPiece(Piece pce, Point pt) {
+  public PieceNode<Piece> addPiece(Piece pce, Point pt) {
+    
+    return addPiece(pce,pt.y,pt.x);
+    
+  }
+  
+  /**
+   * Adds the given piece to this grid with the upper left corner at the given position.
+   * 
+   * @param pce the piece being added
+   * @param row the row at which the piece is being added
+   * @param col the column at which the piece is being added
+   * @throws IllegalArgumentException If the piece is empty.
+   * @return The node corresponding to the added piece (null if the piece does not fit).
+   */
+  public PieceNode<Piece> addPiece(Piece pce, int row, int col) {
     
     if (pce.isEmpty()) throw new IllegalArgumentException("addPiece: Cannot add an empty piece to grid");
     
-    if (pieceFits(pce,pt)) {
-      int[][] matrix = pce.getMatrix();
+    if (pieceFits(pce,row,col)) {
+      byte[] matrix = pce.getCells();
+      int width = pce.getWidth();
       
-      int startRow = pt.x;
-      int startCol = pt.y;
-      
-      for (int i = 0; i < matrix.length; i++) {
-        for (int j = 0; j < matrix[i].length; j++) {
+      for (int i = 0; i < pce.getHeight(); i++) {
+        for (int j = 0; j < width; j++) {
           
-          grid[i+startCol][j+startRow] += matrix[i][j];
+          if (matrix[i*width + j] != EMPTY) change(i+row,j+col,matrix[i*width + j]);
           
         }
       }
       
-      PieceNode<Piece> addition = new PieceNode<Piece>(pce,pt);
+      PieceNode<Piece> addition = new PieceNode<Piece>(pce,row,col);
       addition.place();
       pieces.add(addition);
+      
+      return addition;
     }
     
+    return null;
+    
   }  
   
   /**
@@ -285,26 +497,40 @@ public class GameGrid implements Serializable, Cloneable {
    */
   public int[][] showPiece(Piece pce, Point pt) {
     
+    return showPiece(pce,pt.y,pt.x);
+    
+  }
+  
+  /**
+   * Returns an array representation of this grid with the target piece hovering at the target position.
+   * 
+   * @param pce the hovering piece
+   * @param startRow the row at which the piece is hovering
+   * @param startCol the column at which the piece is hovering
+   * @throws IllegalArgumentException If the piece is empty.
+   * @throws IndexOutOfBoundsException If the piece does not fit in this grid.
+   * @return The array representation of this grid with the target piece hovering at the target position.
+   */
+  public int[][] showPiece(Piece pce, int startRow, int startCol) {
+    
     // Essentially a combination of addPiece and getGrid that uses an offset factor to distinguish
     // between placed and unplaced squares.  This factor is used by the GUI to determine
     // the specific appearance of a square.
     if (pce.isEmpty()) throw new IllegalArgumentException("showPiece: Cannot show an empty piece to grid");
     
-    int[][] matrix = pce.getMatrix();
+    byte[] matrix = pce.getCells();
+    int width = pce.getWidth();
     int[][] displayGrid = evaluate();
     
-    int startRow = pt.y;
-    int startCol = pt.x;
-    
-    if (startRow+matrix.length > MAX_HEIGHT || startCol+matrix[0].length > MAX_WIDTH) 
+    if (startRow+pce.getHeight() > MAX_HEIGHT || startCol+width > MAX_WIDTH) 
       throw new IndexOutOfBoundsException("showPiece: Piece cannot be shown outside the grid");
     
-    for (int i = 0; i < matrix.length; i++) {
-      for (int j = 0; j < matrix[i].length; j++) {
+    for (int i = 0; i < pce.getHeight(); i++) {
+      for (int j = 0; j < width; j++) {
           
-        if (matrix[i][j] > 0)
+        if (matrix[i*width + j] > 0)
           //offset factor allows 
-          displayGrid[i+startRow][j+startCol] += matrix[i][j] + OFFSET_FACTOR;
+          displayGrid[i+startRow][j+startCol] += matrix[i*width + j] + OFFSET_FACTOR;
         
       }
     }
@@ -323,20 +549,33 @@ public class GameGrid implements Serializable, Cloneable {
    */
   public boolean pieceFits(Piece pce, Point pt) {
     
-    if (pce.isEmpty()) throw new IllegalArgumentException("pieceFits: Cannot try an empty piece");
+    return pieceFits(pce,pt.y,pt.x);
     
-    int[][] matrix = pce.getMatrix();
+  }
+  
+  /**
+   * Determines whether or not the piece can be placed at the given position in this grid.
+   * 
+   * @param pce the piece being placed
+   * @param startRow the row at which the piece is being placed
+   * @param startCol the column at which the piece is being placed
+   * @return true if the piece can be placed at the given position in this grid.
+   * @throws IllegalArgumentException If the piece is empty.
+   */
+  public boolean pieceFits(Piece pce, int startRow, int startCol) {
+    
+    if (pce.isEmpty()) throw new IllegalArgumentException("pieceFits: Cannot try an empty piece");
     
-    int startRow = pt.y;
-    int startCol = pt.x;
+    byte[] matrix = pce.getCells();
+    int width = pce.getWidth();
     
-    if (startRow+matrix.length > MAX_HEIGHT || startCol+matrix[0].length > MAX_WIDTH) 
+    if (startRow+pce.getHeight() > MAX_HEIGHT || startCol+width > MAX_WIDTH) 
       return false;   
     
-    for (int i = 0;i<matrix.length;i++) {
-      for (int j = 0; j<matrix[i].length;j++) {
+    for (int i = 0;i<pce.getHeight();i++) {
+      for (int j = 0; j<width;j++) {
         
-        if (matrix[i][j]!= EMPTY && !isEmptySquare(i+startRow,j+startCol))
+        if (matrix[i*width + j]!= EMPTY && !isEmptySquare(i+startRow,j+startCol))
           return false;
         
       }
@@ -358,15 +597,16 @@ public class GameGrid implements Serializable, Cloneable {
     for (PieceNode<Piece> piece : pieces) {
       if (piece.equals(pce)) {
       
-        int[][] matrix = piece.getObj().getMatrix();
+        byte[] matrix = piece.getObj().getCells();
+        int width = piece.getObj().getWidth();
         
-        int startRow = piece.getFloatPos().y;
-        int startCol = piece.getFloatPos().x;
+        int startRow = piece.getRow();
+        int startCol = piece.getCol();
         
-        for (int i = 0; i < matrix.length; i++) {
-          for (int j = 0; j < matrix[i].length; j++) {
+        for (int i = 0; i < piece.getObj().getHeight(); i++) {
+          for (int j = 0; j < width; j++) {
             
-            grid[i+startRow][j+startCol] -= matrix[i][j];
+            if (matrix[i*width + j] != EMPTY) change(i+startRow,j+startCol,-matrix[i*width + j]);
             
           }
         }
@@ -412,7 +652,7 @@ public class GameGrid implements Serializable, Cloneable {
    */
   private int getOrigShade(int row, int col) {
     
-    int color = grid[row][col];
+    int color = cells[index(row,col)];
     
     switch (color) {
       
@@ -439,10 +679,28 @@ public class GameGrid implements Serializable, Cloneable {
    */
   public int[] getAdjacent(int row, int col) {
     
+    return getAdjacent(row,col,new int[NUM_VALUES]);
+    
+  }
+  
+  /**
+   * Writes the number of empty, white, and black squares adjacent to the given position
+   * into the given array, indexed by shade (traps count as empty squares).
+   * 
+   * @param row the target row
+   * @param col the target column
+   * @param adjacentCount the array (of length four or more) receiving the counts
+   * @return adjacentCount.
+   * @throws ArrayIndexOutOfBoundsException if the target position is not on the grid
+   */
+  public int[] getAdjacent(int row, int col, int[] adjacentCount) {
+    
     if (row >= MAX_HEIGHT || col >= MAX_WIDTH || row < 0 || col < 0) 
       throw new ArrayIndexOutOfBoundsException("getAdjacent: target out of bounds");
     
-    int[] adjacentCount = new int[NUM_VALUES];
+    adjacentCount[EMPTY] = 0;
+    adjacentCount[WHITE] = 0;
+    adjacentCount[BLACK] = 0;
     
     if (row > 0) adjacentCount[getOrigShade(row-1,col)%TRAP]++;
     if (col > 0) adjacentCount[getOrigShade(row,col-1)%TRAP]++;
@@ -453,6 +711,33 @@ public class GameGrid implements Serializable, Cloneable {
     
   }
   
+  /**
+   * Returns the directions (ADJ_UP, ADJ_LEFT, ADJ_DOWN and ADJ_RIGHT, or'ed together) in
+   * which the squares adjacent to the given position are of the given shade (traps count
+   * as empty squares).  Integer.bitCount of the mask is the number of such squares.
+   * 
+   * @param row the target row
+   * @param col the target column
+   * @param shade EMPTY (0), WHITE (1) or BLACK (3)
+   * @return the mask of the directions of the adjacent squares of that shade.
+   * @throws ArrayIndexOutOfBoundsException if the target position is not on the grid
+   */
+  public int adjacentMask(int row, int col, int shade) {
+    
+    if (row >= MAX_HEIGHT || col >= MAX_WIDTH || row < 0 || col < 0) 
+      throw new ArrayIndexOutOfBoundsException("adjacentMask: target out of bounds");
+    
+    int mask = 0;
+    
+    if (row > 0 && getOrigShade(row-1,col)%TRAP == shade) mask |= ADJ_UP;
+    if (col > 0 && getOrigShade(row,col-1)%TRAP == shade) mask |= ADJ_LEFT;
+    if (row < MAX_HEIGHT-1 && getOrigShade(row+1,col)%TRAP == shade) mask |= ADJ_DOWN;
+    if (col < MAX_WIDTH-1 && getOrigShade(row,col+1)%TRAP == shade) mask |= ADJ_RIGHT;
+    
+    return mask;
+    
+  }
+  
   /**
    * Returns a list of all empty points strictly adjacent (left, right, up, down) 
    * to the target location.
@@ -463,20 +748,44 @@ public class GameGrid implements Serializable, Cloneable {
    */
   public LinkedList<Point> strictAdjEmpty(int row, int col) {
     
-    if (row >= MAX_HEIGHT || col >= MAX_WIDTH || row < 0 || col < 0) 
-      throw new ArrayIndexOutOfBoundsException("strictAdjEmpty:target out of bounds");
+    int[] adjacent = new int[4];
+    int count = strictAdjEmpty(row,col,adjacent);
     
     LinkedList<Point> empty = new LinkedList<Point>();
     
-    if (row > 0 && isEmptySquare(row-1,col)) empty.add(new Point(col,row-1));
-    if (col > 0 && isEmptySquare(row,col-1)) empty.add(new Point(col-1,row));
-    if (row < MAX_HEIGHT-1 && isEmptySquare(row+1,col)) empty.add(new Point(col,row+1));
-    if (col < MAX_WIDTH-1 && isEmptySquare(row,col+1)) empty.add(new Point(col+1,row));
+    for (int i = 0; i < count; i++) {
+      empty.add(new Point(Position.col(adjacent[i]),Position.row(adjacent[i])));
+    }
     
     return empty;
     
   }
   
+  /**
+   * Writes the positions (packed, see Position) of all empty squares strictly adjacent
+   * (up, left, down, right) to the target location into the given array.
+   * 
+   * @param row the target row
+   * @param col the target column
+   * @param empty the array (of length four or more) receiving the adjacent empty positions
+   * @return The number of adjacent empty positions written to empty.
+   */
+  public int strictAdjEmpty(int row, int col, int[] empty) {
+    
+    if (row >= MAX_HEIGHT || col >= MAX_WIDTH || row < 0 || col < 0) 
+      throw new ArrayIndexOutOfBoundsException("strictAdjEmpty:target out of bounds");
+    
+    int count = 0;
+    
+    if (row > 0 && isEmptySquare(row-1,col)) empty[count++] = Position.of(row-1,col);
+    if (col > 0 && isEmptySquare(row,col-1)) empty[count++] = Position.of(row,col-1);
+    if (row < MAX_HEIGHT-1 && isEmptySquare(row+1,col)) empty[count++] = Position.of(row+1,col);
+    if (col < MAX_WIDTH-1 && isEmptySquare(row,col+1)) empty[count++] = Position.of(row,col+1);
+    
+    return count;
+    
+  }
+  
   /**
    * Returns a list of all empty points loosly adjacent (diagonals included) 
    * to the target location.
@@ -488,36 +797,47 @@ public class GameGrid implements Serializable, Cloneable {
    */
   public LinkedList<Point> looseAdjEmpty(int row, int col) {
     
-    if (row >= MAX_HEIGHT || col >= MAX_WIDTH || row < 0 || col < 0) 
-      throw new ArrayIndexOutOfBoundsException("looseAdj: target out of bounds");
+    int[] adjacent = new int[8];
+    int count = looseAdjEmpty(row,col,adjacent);
     
     LinkedList<Point> empty = new LinkedList<Point>();
     
-    if (row > 0) {
-      if (isEmptySquare(col,row-1)) empty.add(new Point(col,row-1));
-      if (col > 0)
-        if (isEmptySquare(col-1,row-1))empty.add(new Point(col-1,row-1));
-      if (col < MAX_WIDTH-1)
-        if (isEmptySquare(col+1,row-1))empty.add(new Point(col+1,row-1));
-    }
-    if (row < MAX_HEIGHT-1) {
-      if (isEmptySquare(col,row+1)) empty.add(new Point(col,row+1));
-      if (col > 0)
-        if (isEmptySquare(col-1,row+1)) empty.add(new Point(col-1,row+1));
-      if (col < MAX_WIDTH-1)
-        if (isEmptySquare(col+1,row+1)) empty.add(new Point(col+1,row+1));
-    }
-    if (col > 0) {
-      if (isEmptySquare(col-1,row)) empty.add(new Point(col-1,row));
-    }
-    if (col < MAX_WIDTH-1) {
-      if (isEmptySquare(col+1,row)) empty.add(new Point(col+1,row));
+    for (int i = 0; i < count; i++) {
+      empty.add(new Point(Position.col(adjacent[i]),Position.row(adjacent[i])));
     }
     
     return empty;
     
   }
   
+  /**
+   * Writes the positions (packed, see Position) of all empty squares loosly adjacent
+   * (diagonals included) to the target location into the given array.
+   * 
+   * @param row the target row
+   * @param col the target column
+   * @param empty the array (of length eight or more) receiving the adjacent empty positions
+   * @return The number of adjacent empty positions written to empty.
+   */
+  public int looseAdjEmpty(int row, int col, int[] empty) {
+    
+    if (row >= MAX_HEIGHT || col >= MAX_WIDTH || row < 0 || col < 0) 
+      throw new ArrayIndexOutOfBoundsException("looseAdj: target out of bounds");
+    
+    int count = 0;
+    
+    for (int i = Math.max(0,row-1); i <= Math.min(MAX_HEIGHT-1,row+1); i++) {
+      for (int j = Math.max(0,col-1); j <= Math.min(MAX_WIDTH-1,col+1); j++) {
+        
+        if ((i != row || j != col) && isEmptySquare(i,j)) empty[count++] = Position.of(i,j);
+        
+      }
+    }
+    
+    return count;
+    
+  }
+  
   /**
    * Gets the final (displayed) colour of the square at the given position (accounts for occupied traps).
    * 
@@ -527,22 +847,23 @@ public class GameGrid implements Serializable, Cloneable {
    */
   public int getVisShade(int row, int col) {
     
-    int[] adj = getAdjacent(row,col);
-    
     int orig = getOrigShade(row,col);
+    int adj;
     
     switch (orig) {
       
       case WHITE : //if the square is white and adjacent to one or more black squares, it changes.
         
-        if (adj[BLACK]==1) return GRAY;
-        else if (adj[BLACK]>1) return BLACK;
+        adj = Integer.bitCount(adjacentMask(row,col,BLACK));
+        if (adj==1) return GRAY;
+        else if (adj>1) return BLACK;
         else return orig;
         
       case BLACK : //if the square is black and adjacent to one or more black squares, it changes.
         
-        if (adj[WHITE]==1) return GRAY;
-        else if (adj[WHITE]>1) return WHITE;
+        adj = Integer.bitCount(adjacentMask(row,col,WHITE));
+        if (adj==1) return GRAY;
+        else if (adj>1) return WHITE;
         else return orig;
       
       default : 
@@ -554,27 +875,64 @@ public class GameGrid implements Serializable, Cloneable {
   }
   
   /**
-   * Creates a clone of this grid.
+   * Creates a clone of this grid (see copyInto).
    * 
    * @return a clone of this grid.
    */
   public GameGrid clone() {
     
     GameGrid clone = new GameGrid(MAX_HEIGHT, MAX_WIDTH);
+    copyInto(clone);
+    
+    return clone;
+    
+  }
+  
+  /**
+   * Copies this grid into target, a grid of the same size, reusing its storage.  The
+   * nodes of the pieces are copied (the pieces themselves are shared), so pieces may
+   * be added to and removed from either grid without changing the other.
+   * 
+   * @param target the grid overwritten with the squares and pieces of this grid
+   * @throws IllegalArgumentException If target is not the same size as this grid.
+   */
+  public void copyInto(GameGrid target) {
+    
+    if (target == this) return;
+    if (target.MAX_HEIGHT != MAX_HEIGHT || target.MAX_WIDTH != MAX_WIDTH) 
+      throw new IllegalArgumentException("copyInto: target is not the same size as this grid");
+    
+    System.arraycopy(cells,0,target.cells,0,cells.length);
+    target.grid = null;
+    
+    target.pieces.clear();
     for (PieceNode<Piece> pce : pieces) {
       
-      clone.pieces.add(pce);
+      target.pieces.add(pce.clone());
       
     }
+    
+    target.hash = hash;
+    
+  }
+  
+  /**
+   * Creates a grid of the same size as this grid holding only its traps.
+   * 
+   * @return a copy of this grid with all squares removed.
+   */
+  public GameGrid trapsOnly() {
+    
+    GameGrid traps = new GameGrid(MAX_HEIGHT, MAX_WIDTH);
     for (int i = 0; i < MAX_HEIGHT ; i++) {
       for (int j = 0; j < MAX_WIDTH ; j++) {
         
-        clone.grid[i][j] = grid[i][j];
+        if (hasTrap(i,j)) traps.setTrap(i,j);
         
       }
     }
     
-    return clone;
+    return traps;
     
   }
   
@@ -612,7 +970,7 @@ public class GameGrid implements Serializable, Cloneable {
     for (int i = 0; i < MAX_HEIGHT; i++) {
       for (int j = 0; j < MAX_WIDTH; j++) {
         
-        if (isEmptySquare(i,j) && getAdjacent(i,j)[EMPTY] > 1) return false;
+        if (isEmptySquare(i,j) && Integer.bitCount(adjacentMask(i,j,EMPTY)) > 1) return false;
         
       }
     }
@@ -628,20 +986,7 @@ public class GameGrid implements Serializable, Cloneable {
    */
   public String toString() {
     
-    String s = "";
-    
-    for (int i = 0; i < MAX_HEIGHT ; i++) {
-      for (int j = 0; j < MAX_WIDTH ; j++) {
-        
-        s += grid[i][j] + " " ;
-        
-      }
-      
-      s += "\n";
-        
-    }
-    
-    return s;
+    return BoardWriter.toText(this);
     
   }
   
@@ -652,6 +997,30 @@ public class GameGrid implements Serializable, Cloneable {
    */
   public int[][] evaluate() {
     
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
+    
+    // grids of BITBOARD_CELLS squares or more are evaluated 64 squares at a time,
+    // and grids of PARALLEL_CELLS squares or more in bands of rows at once.
+    int size = MAX_HEIGHT*MAX_WIDTH;
+    int[][] solution;
+    
+    if (size >= BitboardEvaluator.PARALLEL_CELLS) solution = BitboardEvaluator.evaluateParallel(cells,MAX_HEIGHT,MAX_WIDTH);
+    else if (size >= BITBOARD_CELLS) solution = BitboardEvaluator.evaluate(cells,MAX_HEIGHT,MAX_WIDTH);
+    else solution = evaluateScalar();
+    
+    if (Metrics.ENABLED) EVALUATE_TIME.stop(start);
+    
+    return solution;
+    
+  }
+  
+  /**
+   * Returns the evaluation of this grid, found one square at a time (see getVisShade).
+   * 
+   * @return an array representation of this grid evaluated.
+   */
+  int[][] evaluateScalar() {
+    
     int[][] solution = new int[MAX_HEIGHT][MAX_WIDTH];
     
     for (int i = 0; i < MAX_HEIGHT ; i++) {
@@ -675,7 +1044,10 @@ public class GameGrid implements Serializable, Cloneable {
    */
   public boolean matches(int[][] solution) {
     
-    if (grid.length != solution.length || grid[0].length != solution[0].length) return false;
+    if (MAX_HEIGHT != solution.length || MAX_WIDTH != solution[0].length) return false;
+    
+    if (MAX_HEIGHT*MAX_WIDTH >= BitboardEvaluator.PARALLEL_CELLS) 
+      return BitboardEvaluator.matchesParallel(cells,MAX_HEIGHT,MAX_WIDTH,solution);
     
     int[][] evaluatedGrid = evaluate();
     
@@ -742,6 +1114,13 @@ public class GameGrid implements Serializable, Cloneable {
     
     System.out.println(grid.matches(grid.evaluate()));
     
+    // the hash does not depend on the order in which squares were added
+    GameGrid grid3 = new GameGrid(10,10);
+    grid3.setTrap(3,3);
+    grid3.addPiece(w, new Point(2,2));
+    grid3.addPiece(b, new Point(2,3));
+    System.out.println(grid3.getHash() == grid.getHash());
+    
     GameGrid grid2 = grid.clone();
     
     grid2.removePiece(new PieceNode<Piece>(b, new Point(2,3)));
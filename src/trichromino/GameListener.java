@@ -0,0 +1,20 @@
+/**
+ * A GameListener is told when the state of a Trichromino game has changed through
+ * one of its commands (see Trichromino.execute and Trichromino.executeAll).
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+public interface GameListener {
+
+  /**
+   * Called after a command, or a whole batch of commands, has been applied to game.
+   *
+   * @param game the game that changed
+   * @param commands the number of commands applied since the last notification
+   */
+  void gameChanged(Trichromino game, int commands);
+
+}
@@ -80,7 +80,7 @@ public class GamePanel extends JPanel {
         if (!game.isEmpty()) {
           // if the piece is not placed, then the piece is shown in the given position.
           if (currentPiece.isPlaced()) shade = game.getCurrentGame().evaluate()[i][j];
-          else shade = game.getCurrentGame().showPiece(currentPiece.getObj(),currentPiece.getFloatPos())[i][j];
+          else shade = game.getCurrentGame().showPiece(currentPiece.getObj(),currentPiece.getRow(),currentPiece.getCol())[i][j];
         }
         else shade = 0;
         
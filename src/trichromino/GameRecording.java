@@ -0,0 +1,194 @@
+/**
+ * A GameRecording holds the commands applied to a Trichromino game from a given
+ * starting state, along with the time at which each command was applied.
+ * <p>
+ * Every command takes one byte; the time since the previous command (in
+ * milliseconds) is stored as a variable-length integer, so most commands take
+ * between two and three bytes in all.  Recordings are replayed by a ReplayEngine.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+public class GameRecording implements Serializable {
+
+  private Trichromino start; // the game before the first command
+  private long startTime;
+  private long lastTime;
+
+  private byte[] commands;
+  private int size;
+
+  private byte[] deltas; // time between commands as variable-length integers
+  private int deltasLength;
+
+  private final int INITIAL_CAPACITY = 64;
+
+  // bits of a delta stored per byte; the top bit marks a following byte.
+  private static final int DELTA_BITS = 7;
+  private static final int MORE = 0x80;
+
+  private static final long serialVersionUID = 1;
+
+  /**
+   * Constructor copies the current state of game as the start of the recording.
+   *
+   * @param game the game being recorded
+   */
+  public GameRecording(Trichromino game) {
+
+    start = game.copy();
+    startTime = lastTime = System.currentTimeMillis();
+
+    commands = new byte[INITIAL_CAPACITY];
+    deltas = new byte[INITIAL_CAPACITY];
+
+  }
+
+  /**
+   * Appends a command applied at the given time.
+   *
+   * @param cmd the command (see Trichromino.execute)
+   * @param time the time (System.currentTimeMillis) at which the command was applied
+   */
+  public void append(int cmd, long time) {
+
+    if (size == commands.length) commands = Arrays.copyOf(commands,2*size);
+    if (deltasLength + 10 > deltas.length) deltas = Arrays.copyOf(deltas,2*deltas.length + 10);
+
+    commands[size++] = (byte) cmd;
+
+    long delta = Math.max(time - lastTime,0);
+    lastTime = Math.max(time,lastTime);
+
+    while (delta >= MORE) {
+      deltas[deltasLength++] = (byte) (delta | MORE);
+      delta >>>= DELTA_BITS;
+    }
+    deltas[deltasLength++] = (byte) delta;
+
+  }
+
+  /**
+   * Returns the number of commands in this recording.
+   *
+   * @return the number of recorded commands.
+   */
+  public int size() {
+
+    return size;
+
+  }
+
+  /**
+   * Returns the command at the given index.
+   *
+   * @param i the index of the command
+   * @return the command applied after i other commands.
+   * @throws IndexOutOfBoundsException If i is not the index of a recorded command.
+   */
+  public int getCommand(int i) {
+
+    if (i < 0 || i >= size) throw new IndexOutOfBoundsException("getCommand: " + i + " outside " + size);
+
+    return commands[i];
+
+  }
+
+  /**
+   * Returns a copy of the game as it was when the recording started.
+   *
+   * @return A copy of the starting game.
+   */
+  public Trichromino getStart() {
+
+    return start.copy();
+
+  }
+
+  /**
+   * Returns the time at which the recording started.
+   *
+   * @return the time (System.currentTimeMillis) at which the recording started.
+   */
+  public long getStartTime() {
+
+    return startTime;
+
+  }
+
+  /**
+   * Returns the time taken by the recorded commands.
+   *
+   * @return the time (in milliseconds) between the start and the last command.
+   */
+  public long getDuration() {
+
+    return lastTime - startTime;
+
+  }
+
+  /**
+   * Returns the array holding the recorded commands (only the first size() are used).
+   * The array must not be changed.
+   *
+   * @return the recorded commands.
+   */
+  byte[] commands() {
+
+    return commands;
+
+  }
+
+  /**
+   * Decodes the time delta starting at the given offset in the encoded deltas.
+   *
+   * @param offset the offset of the first byte of the delta
+   * @return the time (in milliseconds) between a command and the one before it.
+   */
+  long deltaAt(int offset) {
+
+    long delta = 0;
+    int shift = 0;
+    int b;
+
+    do {
+      b = deltas[offset++];
+      delta |= (long) (b & (MORE - 1)) << shift;
+      shift += DELTA_BITS;
+    } while ((b & MORE) != 0);
+
+    return delta;
+
+  }
+
+  /**
+   * Returns the offset of the delta following the one at the given offset.
+   *
+   * @param offset the offset of the first byte of a delta
+   * @return the offset of the first byte of the next delta.
+   */
+  int nextDelta(int offset) {
+
+    while ((deltas[offset] & MORE) != 0) offset++;
+
+    return offset + 1;
+
+  }
+
+  /**
+   * Returns a string representation of this recording.
+   *
+   * @return A string representation of this recording.
+   */
+  public String toString() {
+
+    return size + " commands over " + getDuration() + "ms (" + (size + deltasLength) + " bytes)";
+
+  }
+
+}
@@ -0,0 +1,575 @@
+/**
+ * GameServer serves Trichromino games over HTTP, using the HTTP server built into
+ * the JDK and a SessionManager holding the games.
+ * <p>
+ * Requests:
+ * <ul>
+ * <li>POST /games?mode=basic|challenge creates a game and returns its full state.</li>
+ * <li>GET /games/{id} returns the full state of a game.</li>
+ * <li>POST /games/{id}/commands applies the commands in the body (one digit per
+ *     command, see Trichromino.execute) and returns the new state.</li>
+ * <li>GET /games/{id}/hint returns a hint for the game.</li>
+ * <li>DELETE /games/{id} ends a game.</li>
+ * </ul>
+ * States are returned as JSON in which the grid is a string of one hexadecimal digit
+ * per square (row by row) and each piece is [row, column, placed].  The full state
+ * also holds the solution and the shape of each piece ("rows x cols : squares").
+ * <p>
+ * Games that receive no command for SESSION_TTL are ended, along with their hint
+ * engines.
+ * <p>
+ * Responses are small, so unless TCP_NODELAY is set each one may wait on a delayed
+ * ACK (about 40ms).  The JDK server only sets it if the system property
+ * sun.net.httpserver.nodelay is true when the first server is created, which is
+ * left to the launcher (main sets it unless it is given).
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class GameServer {
+
+  private final HttpServer server;
+  private final ExecutorService workers;
+  private final ScheduledExecutorService evictor;
+  private final SessionManager sessions;
+  private final ConcurrentHashMap<Long,HintEngine> hints;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String HEX = "0123456789abcdef";
+
+  // time allowed for finding a hint (ms)
+  private static final long HINT_BUDGET = 50;
+
+  // time after which a game without commands is ended, and time between two
+  // searches for such games (ms)
+  private static final long SESSION_TTL = 30*60*1000L;
+  private static final long EVICT_PERIOD = 60*1000L;
+
+  private static final int OK = 200;
+  private static final int CREATED = 201;
+  private static final int BAD_REQUEST = 400;
+  private static final int NOT_FOUND = 404;
+  private static final int BAD_METHOD = 405;
+  private static final int SERVER_ERROR = 500;
+
+  /**
+   * Constructor binds a server to the given port of the local host (0 for any free
+   * port), handling requests on a pool of the given number of threads.
+   *
+   * @param port the port on which requests are received
+   * @param threads the number of threads handling requests
+   * @throws IOException If the server cannot be bound.
+   */
+  public GameServer(int port, int threads) throws IOException {
+
+    sessions = new SessionManager();
+    hints = new ConcurrentHashMap<Long,HintEngine>();
+
+    workers = Executors.newFixedThreadPool(threads,new ThreadFactory() {
+
+      private final AtomicLong count = new AtomicLong();
+
+      public Thread newThread(Runnable r) {
+
+        Thread thread = new Thread(r,"trichromino-http-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+
+      }
+
+    });
+
+    evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+      public Thread newThread(Runnable r) {
+
+        Thread thread = new Thread(r,"trichromino-evict");
+        thread.setDaemon(true);
+        return thread;
+
+      }
+
+    });
+
+    evictor.scheduleWithFixedDelay(new Runnable() {
+
+      public void run() {
+
+        evict(SESSION_TTL);
+
+      }
+
+    },EVICT_PERIOD,EVICT_PERIOD,TimeUnit.MILLISECONDS);
+
+    server = HttpServer.create(new InetSocketAddress("localhost",port),0);
+    server.setExecutor(workers);
+    server.createContext("/games",new HttpHandler() {
+
+      public void handle(HttpExchange exchange) throws IOException {
+
+        try {
+          route(exchange);
+        } catch (IllegalArgumentException e) {
+          send(exchange,BAD_REQUEST,error(e.getMessage()));
+        } catch (IllegalStateException e) {
+          send(exchange,BAD_REQUEST,error(e.getMessage()));
+        } catch (RuntimeException e) {
+          EventLog.error("request failed","exception",e);
+          send(exchange,SERVER_ERROR,error("internal error"));
+        } finally {
+          exchange.close();
+        }
+
+      }
+
+    });
+
+  }
+
+  /**
+   * Starts receiving requests.
+   */
+  public void start() {
+
+    server.start();
+
+  }
+
+  /**
+   * Stops receiving requests and stops the threads of this server.
+   */
+  public void stop() {
+
+    server.stop(0);
+    workers.shutdown();
+    evictor.shutdown();
+    sessions.shutdown();
+
+  }
+
+  /**
+   * Ends every game that has received no command for the given time, and stops and
+   * forgets the hint engines of games that have ended.
+   *
+   * @param idle the time (in milliseconds) after which a game is ended
+   * @return the number of games ended.
+   */
+  int evict(long idle) {
+
+    int removed = sessions.evictIdle(idle);
+
+    for (Long id : hints.keySet()) {
+
+      if (sessions.get(id) == null) {
+        HintEngine engine = hints.remove(id);
+        if (engine != null) engine.stop();
+      }
+
+    }
+
+    return removed;
+
+  }
+
+  /**
+   * Returns the port on which this server receives requests.
+   *
+   * @return the port of this server.
+   */
+  public int getPort() {
+
+    return server.getAddress().getPort();
+
+  }
+
+  /**
+   * Dispatches a request according to its method and path.
+   *
+   * @param exchange the request and its response
+   */
+  private void route(HttpExchange exchange) throws IOException {
+
+    String method = exchange.getRequestMethod();
+    String[] path = exchange.getRequestURI().getPath().split("/");
+
+    // path[0] is empty and path[1] is "games" (the context also receives /gamesX...).
+    if (path.length < 2 || !path[1].equals("games")) {
+      send(exchange,NOT_FOUND,error("no such resource " + exchange.getRequestURI().getPath()));
+      return;
+    }
+
+    if (path.length == 2) {
+
+      if (!method.equals("POST")) {
+        send(exchange,BAD_METHOD,error("use POST to create a game"));
+        return;
+      }
+
+      String query = exchange.getRequestURI().getQuery();
+      int mode = (query != null && query.contains("mode=challenge")) ? Trichromino.CHALLENGE : Trichromino.BASIC;
+
+      GameSession session = sessions.create(mode);
+      send(exchange,CREATED,encode(session.getId(),session.getState(),true));
+      return;
+
+    }
+
+    long id;
+    try {
+      id = Long.parseLong(path[2]);
+    } catch (NumberFormatException e) {
+      send(exchange,NOT_FOUND,error("no game " + path[2]));
+      return;
+    }
+
+    GameSession session = sessions.get(id);
+    if (session == null || path.length > 4) {
+      send(exchange,NOT_FOUND,error("no game " + path[2]));
+      return;
+    }
+
+    String action = (path.length == 4) ? path[3] : "";
+
+    if (action.equals("") && method.equals("GET")) {
+
+      send(exchange,OK,encode(id,session.getState(),true));
+
+    } else if (action.equals("") && method.equals("DELETE")) {
+
+      sessions.remove(id);
+      HintEngine engine = hints.remove(id);
+      if (engine != null) engine.stop();
+      send(exchange,OK,"{\"id\":" + id + "}");
+
+    } else if (action.equals("commands") && method.equals("POST")) {
+
+      GameState state;
+      try {
+        state = session.submit(commands(exchange.getRequestBody())).get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("commands: interrupted");
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("commands: " + e.getCause().getMessage());
+      }
+
+      send(exchange,OK,encode(id,state,false));
+
+    } else if (action.equals("hint") && method.equals("GET")) {
+
+      send(exchange,OK,encode(id,hint(id,session.getState())));
+
+    } else {
+
+      send(exchange,BAD_METHOD,error(method + " not allowed on " + exchange.getRequestURI().getPath()));
+
+    }
+
+  }
+
+  /**
+   * Finds a hint for the given state of a game, reusing the hint engine of the game.
+   *
+   * @param id the id of the game
+   * @param state the state of the game
+   * @return A hint for state.
+   */
+  private Hint hint(long id, GameState state) {
+
+    if (state.isEmpty()) throw new IllegalStateException("hint: Game is current empty");
+
+    Trichromino game = new Trichromino(state);
+    HintEngine engine = hints.get(id);
+
+    if (engine == null) {
+      engine = new HintEngine(game);
+      HintEngine raced = hints.putIfAbsent(id,engine);
+      if (raced != null) {
+        engine.stop();
+        engine = raced;
+      }
+    }
+
+    return engine.hint(game,HINT_BUDGET);
+
+  }
+
+  /**
+   * Reads the commands in a request body (one digit per command).
+   *
+   * @param body the request body
+   * @return the commands, one per byte.
+   * @throws IllegalArgumentException If the body holds anything but digits and whitespace.
+   */
+  private static byte[] commands(InputStream body) throws IOException {
+
+    ByteArrayOutputStream cmds = new ByteArrayOutputStream();
+    int c;
+
+    while ((c = body.read()) != -1) {
+
+      if (c >= '0' && c <= '9') cmds.write(c - '0');
+      else if (!Character.isWhitespace(c))
+        throw new IllegalArgumentException("commands: '" + (char) c + "' is not a command");
+
+    }
+
+    return cmds.toByteArray();
+
+  }
+
+  /**
+   * Encodes the state of a game as JSON.
+   *
+   * @param id the id of the game
+   * @param state the state of the game
+   * @param full true if the solution and the shapes of the pieces are included
+   * @return the JSON encoding of state.
+   */
+  static String encode(long id, GameState state, boolean full) {
+
+    int height = state.getHeight();
+    int width = state.getWidth();
+    StringBuilder json = new StringBuilder(64 + (full ? 2 : 1)*height*width + 24*state.numPieces());
+
+    json.append("{\"id\":").append(id)
+      .append(",\"height\":").append(height)
+      .append(",\"width\":").append(width)
+      .append(",\"current\":").append(state.getCurrentIndex())
+      .append(",\"over\":").append(state.isOver())
+      .append(",\"grid\":\"");
+
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        json.append(HEX.charAt(state.get(i,j)));
+      }
+    }
+
+    json.append("\",\"pieces\":[");
+
+    for (int i = 0; i < state.numPieces(); i++) {
+
+      if (i > 0) json.append(',');
+      json.append('[').append(Position.row(state.getPosition(i)))
+        .append(',').append(Position.col(state.getPosition(i)))
+        .append(',').append(state.isPlaced(i) ? 1 : 0).append(']');
+
+    }
+
+    json.append(']');
+
+    if (full) {
+
+      json.append(",\"solution\":\"");
+      for (int[] row : state.solution()) {
+        for (int shade : row) {
+          json.append(HEX.charAt(shade));
+        }
+      }
+
+      json.append("\",\"shapes\":[");
+
+      for (int i = 0; i < state.numPieces(); i++) {
+
+        int[][] matrix = state.getPiece(i).getMatrix();
+
+        if (i > 0) json.append(',');
+        json.append('"').append(matrix.length).append('x').append(matrix[0].length).append(':');
+        for (int[] row : matrix) {
+          for (int square : row) {
+            json.append(HEX.charAt(square));
+          }
+        }
+        json.append('"');
+
+      }
+
+      json.append(']');
+
+    }
+
+    return json.append('}').toString();
+
+  }
+
+  /**
+   * Encodes a hint as JSON.
+   *
+   * @param id the id of the game
+   * @param hint the hint
+   * @return the JSON encoding of hint.
+   */
+  static String encode(long id, Hint hint) {
+
+    String type = (hint.getType() == Hint.PLACE) ? "place" : (hint.getType() == Hint.REMOVE) ? "remove" : "none";
+    StringBuilder json = new StringBuilder(80);
+
+    json.append("{\"id\":").append(id).append(",\"type\":\"").append(type).append("\",\"piece\":").append(hint.getIndex());
+    if (hint.getType() == Hint.PLACE) json.append(",\"row\":").append(hint.getRow()).append(",\"col\":").append(hint.getCol());
+
+    return json.append('}').toString();
+
+  }
+
+  /**
+   * Encodes an error message as JSON.
+   *
+   * @param message the message
+   * @return the JSON encoding of message.
+   */
+  private static String error(String message) {
+
+    return "{\"error\":\"" + String.valueOf(message).replace("\\","\\\\").replace("\"","\\\"") + "\"}";
+
+  }
+
+  /**
+   * Sends a JSON response.
+   *
+   * @param exchange the request and its response
+   * @param status the HTTP status of the response
+   * @param json the body of the response
+   */
+  private static void send(HttpExchange exchange, int status, String json) throws IOException {
+
+    byte[] body = json.getBytes(UTF8);
+
+    exchange.getResponseHeaders().set("Content-Type","application/json");
+    exchange.sendResponseHeaders(status,body.length);
+
+    OutputStream out = exchange.getResponseBody();
+    out.write(body);
+    out.close();
+
+  }
+
+  /**
+   * Sends a request to a server on the local host.
+   *
+   * @param method the HTTP method
+   * @param url the URL of the request
+   * @param body the body of the request (null for none)
+   * @return the body of the response.
+   */
+  private static String request(String method, String url, String body) throws IOException {
+
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestMethod(method);
+
+    if (body != null) {
+      connection.setDoOutput(true);
+      OutputStream out = connection.getOutputStream();
+      out.write(body.getBytes(UTF8));
+      out.close();
+    }
+
+    InputStream in = (connection.getResponseCode() < BAD_REQUEST) ? connection.getInputStream() : connection.getErrorStream();
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int n;
+
+    while ((n = in.read(buffer)) != -1) {
+      response.write(buffer,0,n);
+    }
+
+    in.close();
+
+    return new String(response.toByteArray(),UTF8);
+
+  }
+
+  /**
+   * Starts a server on the given port (default: any free port) and, unless "serve" is
+   * given, plays through it from the local host and times a number of requests.
+   */
+  public static void main(String[]args) throws Exception {
+
+    if (System.getProperty("sun.net.httpserver.nodelay") == null)
+      System.setProperty("sun.net.httpserver.nodelay","true");
+
+    int port = (args.length > 0) ? Integer.parseInt(args[0]) : 0;
+    final GameServer server = new GameServer(port,2*Runtime.getRuntime().availableProcessors());
+    server.start();
+
+    final String base = "http://localhost:" + server.getPort() + "/games";
+    System.out.println("serving on " + base);
+
+    if (args.length > 1 && args[1].equals("serve")) return;
+
+    String created = request("POST",base + "?mode=challenge",null);
+    System.out.println(created);
+
+    final String game = base + "/" + created.substring(6,created.indexOf(','));
+    System.out.println(request("POST",game + "/commands","7 9 9 8 3"));
+    System.out.println(request("GET",game + "/hint",null));
+    System.out.println(request("POST",game + "/commands","x"));
+    System.out.println(request("GET",base + "/99999",null));
+    System.out.println(request("POST",base + "X",null));
+
+    final int requests = 20000;
+    final int clients = 4;
+    Thread[] threads = new Thread[clients];
+    long start = System.nanoTime();
+
+    for (int t = 0; t < clients; t++) {
+
+      threads[t] = new Thread() {
+
+        public void run() {
+
+          try {
+            for (int i = 0; i < requests/clients; i++) {
+              request("POST",game + "/commands",String.valueOf(i%10));
+            }
+          } catch (IOException e) {
+            System.out.println("request failed " + e);
+          }
+
+        }
+
+      };
+
+      threads[t].start();
+
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    long elapsed = System.nanoTime() - start;
+    System.out.println(requests + " requests in " + elapsed/1000000 + "ms ("
+                         + requests*1000000000L/elapsed + " requests/s)");
+
+    System.out.println(request("DELETE",game,null));
+
+    String idle = request("POST",base,null);
+    request("GET",base + "/" + idle.substring(6,idle.indexOf(',')) + "/hint",null);
+    System.out.println(server.evict(0) + " idle games ended, " + server.hints.size() + " hint engines left");
+    server.stop();
+
+  }
+
+}
@@ -0,0 +1,183 @@
+/**
+ * A GameSession is one game hosted by a SessionManager.
+ * <p>
+ * Commands sent to a session are queued in its mailbox and applied one batch at a
+ * time by a task on the manager's executor, so only one thread ever changes a
+ * session at a time without any session holding a thread while idle.  The state of
+ * the game is an immutable GameState published through a volatile field, so any
+ * number of threads may read it at any time without locking.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class GameSession {
+
+  private final long id;
+  private final Executor executor;
+
+  private volatile GameState state;
+  private volatile long lastAccess;
+
+  private final ConcurrentLinkedQueue<Runnable> mailbox;
+  private final AtomicBoolean scheduled;
+  private final Runnable drainer;
+
+  // the most commands applied before the session gives up its thread.
+  private static final int BATCH = 64;
+
+  // the number of states kept to undo to (as in Trichromino).
+  private static final int MAX_UNDO = 30;
+
+  /**
+   * Constructor takes the id of the session, its starting state and the executor on
+   * which its commands are applied.
+   *
+   * @param id the id of this session
+   * @param start the starting state of the game
+   * @param executor the executor applying the commands of this session
+   */
+  GameSession(long id, GameState start, Executor executor) {
+
+    this.id = id;
+    this.executor = executor;
+    state = start;
+    lastAccess = System.currentTimeMillis();
+
+    mailbox = new ConcurrentLinkedQueue<Runnable>();
+    scheduled = new AtomicBoolean();
+
+    drainer = new Runnable() {
+
+      public void run() {
+
+        drain();
+
+      }
+
+    };
+
+  }
+
+  /**
+   * Returns the id of this session.
+   *
+   * @return the id of this session.
+   */
+  public long getId() {
+
+    return id;
+
+  }
+
+  /**
+   * Returns the current state of the game.  The state never changes, so it may be
+   * read at leisure; later commands produce new states.
+   *
+   * @return The current state of the game.
+   */
+  public GameState getState() {
+
+    return state;
+
+  }
+
+  /**
+   * Returns the time at which a command was last sent to this session.
+   *
+   * @return the time (System.currentTimeMillis) of the last command.
+   */
+  public long getLastAccess() {
+
+    return lastAccess;
+
+  }
+
+  /**
+   * Queues a command (see Trichromino.execute).
+   *
+   * @param cmd the command to apply
+   * @return The future state after the command.
+   * @throws IllegalArgumentException If cmd is not a valid command.
+   */
+  public Future<GameState> submit(int cmd) {
+
+    return submit(new byte[] {(byte) cmd});
+
+  }
+
+  /**
+   * Queues a sequence of commands, applied together after every command queued
+   * before them.  The future fails with an IllegalStateException if the game is empty.
+   *
+   * @param cmds the commands to apply, one per byte
+   * @return The future state after the commands.
+   * @throws IllegalArgumentException If some command is not valid (none are queued).
+   */
+  public Future<GameState> submit(final byte[] cmds) {
+
+    for (byte cmd : cmds) {
+      if (cmd < Trichromino.LEFT || cmd > Trichromino.RIGHT)
+        throw new IllegalArgumentException("submit: " + cmd + " is not a valid command.");
+    }
+
+    FutureTask<GameState> task = new FutureTask<GameState>(new Callable<GameState>() {
+
+      public GameState call() {
+
+        GameState next = state.applyAll(cmds);
+        if (next.getDepth() > 2*MAX_UNDO) next = next.trimHistory(MAX_UNDO);
+
+        state = next;
+        return next;
+
+      }
+
+    });
+
+    lastAccess = System.currentTimeMillis();
+    mailbox.add(task);
+    schedule();
+
+    return task;
+
+  }
+
+  /**
+   * Schedules the mailbox to be drained unless it already is.
+   */
+  private void schedule() {
+
+    if (scheduled.compareAndSet(false,true)) executor.execute(drainer);
+
+  }
+
+  /**
+   * Applies up to BATCH queued commands, then reschedules itself if more are queued
+   * (so that busy sessions do not starve the others).
+   */
+  private void drain() {
+
+    for (int i = 0; i < BATCH; i++) {
+
+      Runnable task = mailbox.poll();
+      if (task == null) break;
+      task.run();
+
+    }
+
+    scheduled.set(false);
+
+    if (!mailbox.isEmpty()) schedule();
+
+  }
+
+}
@@ -0,0 +1,679 @@
+/**
+ * A GameState is an immutable snapshot of a Trichromino game: the squares of its
+ * grid, the position of every piece, the selected piece and the solution.
+ * <p>
+ * Applying a command returns a new state and leaves this one unchanged.  States
+ * share everything they do not change: the grid is held as one array per row and
+ * only the rows covered by a placed or removed piece are copied.  Every state keeps
+ * the state it was reached from, so undoing a command only returns that state.
+ * As states never change, they may be handed to other threads without locking.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+public final class GameState {
+
+  private final byte[][] rows; // never changed once the state is built
+  private final int[][] solution;
+  private final Piece[] pieces;
+  private final int[] positions; // packed, see Position
+  private final boolean[] placed;
+  private final int current;
+  private final long hash;
+
+  private final GameState parent; // the state before the last command
+  private final GameState redo; // the state undone to reach this one
+  private final int depth; // the number of states before this one
+
+  private static final int EMPTY = 0;
+  private static final int TRAP = 9;
+
+  private static final int NOT_FOUND = -1;
+
+  /**
+   * Constructor takes every part of the state; the arrays are kept, not copied.
+   *
+   * @param rows the rows of the grid
+   * @param solution the solution of the game
+   * @param pieces the pieces of the game
+   * @param positions the packed position of each piece
+   * @param placed whether or not each piece is placed
+   * @param current the index of the selected piece
+   * @param hash the Zobrist hash of the grid
+   * @param parent the state before the last command (null if none)
+   * @param redo the state undone to reach this one (null if none)
+   */
+  private GameState(byte[][] rows, int[][] solution, Piece[] pieces, int[] positions, boolean[] placed,
+                    int current, long hash, GameState parent, GameState redo) {
+
+    this.rows = rows;
+    this.solution = solution;
+    this.pieces = pieces;
+    this.positions = positions;
+    this.placed = placed;
+    this.current = current;
+    this.hash = hash;
+    this.parent = parent;
+    this.redo = redo;
+
+    depth = (parent == null) ? 0 : parent.depth + 1;
+
+  }
+
+  /**
+   * Takes a snapshot of the given game (without its undo history).
+   *
+   * @param game the game being copied
+   * @return the state of game.
+   */
+  public static GameState of(Trichromino game) {
+
+    GameGrid grid = game.getCurrentGame();
+    byte[] values = grid.getCells();
+    byte[][] rows = new byte[grid.getHeight()][grid.getWidth()];
+
+    for (int i = 0; i < rows.length; i++) {
+      System.arraycopy(values,i*rows[i].length,rows[i],0,rows[i].length);
+    }
+
+    int n = game.isEmpty() ? 0 : game.getPieces().size();
+    Piece[] pieces = new Piece[n];
+    int[] positions = new int[n];
+    boolean[] placed = new boolean[n];
+    int current = NOT_FOUND;
+    int i = 0;
+
+    // the pieces are a linked list, so they are walked rather than indexed.
+    if (n > 0) {
+
+      PieceNode<Piece> selected = game.getCurrentNode();
+
+      for (PieceNode<Piece> node : game.getPieces()) {
+
+        pieces[i] = node.getObj();
+        positions[i] = node.getPosition();
+        placed[i] = node.isPlaced();
+        if (node == selected) current = i;
+        i++;
+
+      }
+
+    }
+
+    return new GameState(rows,copy(game.getSolution()),pieces,positions,placed,current,grid.getHash(),null,null);
+
+  }
+
+  /**
+   * Builds the starting state of a puzzle: an empty board with the given traps,
+   * every piece unplaced at the top left corner and the first piece selected.
+   *
+   * @param rows the rows of the board, holding only traps (kept, not copied)
+   * @param solution the solution of the puzzle
+   * @param pieces the pieces of the puzzle (at least one)
+   * @return the starting state of the puzzle.
+   */
+  static GameState puzzle(byte[][] rows, int[][] solution, Piece[] pieces) {
+
+    int width = rows[0].length;
+    long hash = 0;
+
+    for (int i = 0; i < rows.length; i++) {
+      for (int j = 0; j < width; j++) {
+
+        hash ^= Zobrist.key(i*width + j,rows[i][j]);
+
+      }
+    }
+
+    return new GameState(rows,solution,pieces,new int[pieces.length],new boolean[pieces.length],0,hash,null,null);
+
+  }
+
+  /**
+   * Returns the state reached by applying a command (see Trichromino.execute) to this
+   * state.  Commands that cannot be carried out return this state.
+   *
+   * @param cmd the command being applied
+   * @return the state after cmd.
+   * @throws IllegalStateException If this state is of an empty game.
+   * @throws IllegalArgumentException If cmd is not a valid command.
+   */
+  public GameState apply(int cmd) {
+
+    if (isEmpty()) throw new IllegalStateException("apply: Game is current empty");
+
+    int row = Position.row(positions[current]);
+    int col = Position.col(positions[current]);
+
+    switch (cmd) {
+
+      case Trichromino.LEFT :
+        return canMove(cmd) ? moved(row,col - 1) : this;
+
+      case Trichromino.RIGHT :
+        return canMove(cmd) ? moved(row,col + 1) : this;
+
+      case Trichromino.UP :
+        return canMove(cmd) ? moved(row - 1,col) : this;
+
+      case Trichromino.DOWN :
+        return canMove(cmd) ? moved(row + 1,col) : this;
+
+      case Trichromino.PREV :
+        return new GameState(rows,solution,pieces,positions,placed,(current - 1 + pieces.length)%pieces.length,
+                             hash,this,null);
+
+      case Trichromino.NEXT :
+        return new GameState(rows,solution,pieces,positions,placed,(current + 1)%pieces.length,hash,this,null);
+
+      case Trichromino.PLACE :
+        return (!placed[current] && fits(pieces[current],row,col)) ? withPiece(row,col,1) : this;
+
+      case Trichromino.DISPLACE :
+        return placed[current] ? withPiece(row,col,-1) : this;
+
+      case Trichromino.UNDO :
+        return canUndo() ? parent.withRedo(this) : this;
+
+      case Trichromino.REDO :
+        return canRedo() ? redo : this;
+
+      default :
+        throw new IllegalArgumentException("apply: " + cmd + " is not a valid command.");
+
+    }
+
+  }
+
+  /**
+   * Returns the state reached by applying every command in cmds in turn.
+   *
+   * @param cmds the commands being applied, one per byte
+   * @return the state after the commands.
+   */
+  public GameState applyAll(byte[] cmds) {
+
+    GameState state = this;
+
+    for (byte cmd : cmds) {
+      state = state.apply(cmd);
+    }
+
+    return state;
+
+  }
+
+  /**
+   * Returns a state equal to this one whose undo history is dropped, so that the
+   * earlier states may be reclaimed.
+   *
+   * @return this state without undo or redo history.
+   */
+  public GameState withoutHistory() {
+
+    return new GameState(rows,solution,pieces,positions,placed,current,hash,null,null);
+
+  }
+
+  /**
+   * Returns a state equal to this one that keeps at most the given number of earlier
+   * states to undo to (this state if it keeps no more than that already).  The kept
+   * states are rebuilt, so the cost is proportional to keep.
+   *
+   * @param keep the number of earlier states to keep
+   * @return this state with its undo history cut to keep states.
+   */
+  public GameState trimHistory(int keep) {
+
+    if (depth <= keep) return this;
+
+    GameState[] kept = new GameState[keep];
+    GameState state = parent;
+
+    for (int i = keep - 1; i >= 0; i--) {
+      kept[i] = state;
+      state = state.parent;
+    }
+
+    GameState rebuilt = null;
+
+    for (GameState s : kept) {
+      rebuilt = new GameState(s.rows,s.solution,s.pieces,s.positions,s.placed,s.current,s.hash,rebuilt,null);
+    }
+
+    return new GameState(rows,solution,pieces,positions,placed,current,hash,rebuilt,redo);
+
+  }
+
+  /**
+   * Returns the number of earlier states this state can undo to.
+   *
+   * @return the length of the undo history of this state.
+   */
+  public int getDepth() {
+
+    return depth;
+
+  }
+
+  /**
+   * Determines whether or not the selected piece can move in the denoted direction
+   * (see Trichromino.canMove).
+   *
+   * @param cmd the integer corresponding to the desired move
+   * @return true if the selected piece is unplaced and does not touch the edge in
+   *         the direction of cmd.
+   * @throws IllegalArgumentException If cmd does not correspond to a move.
+   */
+  public boolean canMove(int cmd) {
+
+    if (isEmpty() || placed[current]) return false;
+
+    int row = Position.row(positions[current]);
+    int col = Position.col(positions[current]);
+    Piece piece = pieces[current];
+
+    switch (cmd) {
+
+      case Trichromino.LEFT :
+        return col - 1 >= 0;
+
+      case Trichromino.RIGHT :
+        return col + piece.getWidth() + 1 <= getWidth();
+
+      case Trichromino.UP :
+        return row - 1 >= 0;
+
+      case Trichromino.DOWN :
+        return row + piece.getHeight() + 1 <= getHeight();
+
+      default :
+        throw new IllegalArgumentException("canMove: Invalid command");
+
+    }
+
+  }
+
+  /**
+   * Returns the state in which the selected piece floats at the given position.
+   *
+   * @param row the row to which the piece moves
+   * @param col the column to which the piece moves
+   * @return the state after the move.
+   */
+  private GameState moved(int row, int col) {
+
+    int[] moved = positions.clone();
+    moved[current] = Position.of(row,col);
+
+    return new GameState(rows,solution,pieces,moved,placed,current,hash,this,null);
+
+  }
+
+  /**
+   * Returns the state in which the selected piece is added to (sign 1) or removed
+   * from (sign -1) the grid at the given position.  Only the rows covered by the
+   * piece are copied.
+   *
+   * @param row the row of the selected piece
+   * @param col the column of the selected piece
+   * @param sign 1 to add the piece, -1 to remove it
+   * @return the state after the piece is placed or removed.
+   */
+  private GameState withPiece(int row, int col, int sign) {
+
+    byte[] matrix = pieces[current].getCells();
+    int cols = pieces[current].getWidth();
+    byte[][] changed = rows.clone();
+    long newHash = hash;
+
+    for (int i = 0; i < pieces[current].getHeight(); i++) {
+
+      byte[] line = changed[row + i] = rows[row + i].clone();
+
+      for (int j = 0; j < cols; j++) {
+
+        int square = matrix[i*cols + j];
+        if (square == EMPTY) continue;
+
+        int cell = (row + i)*line.length + col + j;
+        int old = line[col + j];
+        line[col + j] = (byte) (old + sign*square);
+        newHash ^= Zobrist.key(cell,old) ^ Zobrist.key(cell,line[col + j]);
+
+      }
+
+    }
+
+    boolean[] nowPlaced = placed.clone();
+    nowPlaced[current] = sign > 0;
+
+    return new GameState(changed,solution,pieces,positions,nowPlaced,current,newHash,this,null);
+
+  }
+
+  /**
+   * Returns a state equal to this one that can redo into the given state.
+   *
+   * @param undone the state being undone
+   * @return this state, able to redo into undone.
+   */
+  private GameState withRedo(GameState undone) {
+
+    return new GameState(rows,solution,pieces,positions,placed,current,hash,parent,undone);
+
+  }
+
+  /**
+   * Determines whether or not the piece fits in the grid at the given position.
+   *
+   * @param piece the piece being placed
+   * @param row the row at which the piece is placed
+   * @param col the column at which the piece is placed
+   * @return true if the piece lies within the grid and covers no square.
+   */
+  private boolean fits(Piece piece, int row, int col) {
+
+    byte[] matrix = piece.getCells();
+    int cols = piece.getWidth();
+
+    if (row < 0 || col < 0 || row + piece.getHeight() > getHeight() || col + cols > getWidth())
+      return false;
+
+    for (int i = 0; i < piece.getHeight(); i++) {
+      for (int j = 0; j < cols; j++) {
+
+        int value = rows[row + i][col + j];
+        if (matrix[i*cols + j] != EMPTY && value != EMPTY && value != TRAP) return false;
+
+      }
+    }
+
+    return true;
+
+  }
+
+  /**
+   * Determines whether or not this is the state of an empty game.
+   *
+   * @return true if the game has no pieces.
+   */
+  public boolean isEmpty() {
+
+    return current == NOT_FOUND;
+
+  }
+
+  /**
+   * Determines whether or not the grid of this state matches the solution.
+   *
+   * @return true if the game is over.
+   */
+  public boolean isOver() {
+
+    return !isEmpty() && toGrid().matches(solution);
+
+  }
+
+  /**
+   * Determines whether or not there is a state to undo to.
+   *
+   * @return true if this state was reached by a command.
+   */
+  public boolean canUndo() {
+
+    return parent != null;
+
+  }
+
+  /**
+   * Determines whether or not there is a state to redo to.
+   *
+   * @return true if this state was reached by undoing a command.
+   */
+  public boolean canRedo() {
+
+    return redo != null;
+
+  }
+
+  /**
+   * Returns the width of the grid.
+   *
+   * @return The width of the grid.
+   */
+  public int getWidth() {
+
+    return (rows.length == 0) ? 0 : rows[0].length;
+
+  }
+
+  /**
+   * Returns the height of the grid.
+   *
+   * @return The height of the grid.
+   */
+  public int getHeight() {
+
+    return rows.length;
+
+  }
+
+  /**
+   * Returns the value stored in the grid at the given position (as in GameGrid.getGrid).
+   *
+   * @param row the target row
+   * @param col the target column
+   * @return the value of the square at the given position.
+   */
+  public int get(int row, int col) {
+
+    return rows[row][col];
+
+  }
+
+  /**
+   * Returns the Zobrist hash of the grid (equal to GameGrid.getHash of the same grid).
+   *
+   * @return the hash of the grid.
+   */
+  public long getHash() {
+
+    return hash;
+
+  }
+
+  /**
+   * Returns a copy of the solution of the game.
+   *
+   * @return The solution of the game.
+   */
+  public int[][] getSolution() {
+
+    return copy(solution);
+
+  }
+
+  /**
+   * Returns the solution of the game without copying it, for readers within the
+   * package.  The array is shared by every state of the game and must not be changed.
+   *
+   * @return The solution of the game.
+   */
+  int[][] solution() {
+
+    return solution;
+
+  }
+
+  /**
+   * Copies an array row by row.
+   *
+   * @param array the array being copied
+   * @return a copy of array.
+   */
+  private static int[][] copy(int[][] array) {
+
+    int[][] copy = new int[array.length][];
+    for (int i = 0; i < array.length; i++) {
+      copy[i] = array[i].clone();
+    }
+
+    return copy;
+
+  }
+
+  /**
+   * Returns the number of pieces in the game.
+   *
+   * @return the number of pieces.
+   */
+  public int numPieces() {
+
+    return pieces.length;
+
+  }
+
+  /**
+   * Returns the index of the selected piece.
+   *
+   * @return the index of the selected piece (-1 if the game is empty).
+   */
+  public int getCurrentIndex() {
+
+    return current;
+
+  }
+
+  /**
+   * Returns the piece at the given index.
+   *
+   * @param i the index of the piece
+   * @return the piece at index i.
+   */
+  public Piece getPiece(int i) {
+
+    return pieces[i];
+
+  }
+
+  /**
+   * Returns the position of the piece at the given index.
+   *
+   * @param i the index of the piece
+   * @return the position (packed, see Position) of the piece at index i.
+   */
+  public int getPosition(int i) {
+
+    return positions[i];
+
+  }
+
+  /**
+   * Determines whether or not the piece at the given index is placed.
+   *
+   * @param i the index of the piece
+   * @return true if the piece at index i is placed.
+   */
+  public boolean isPlaced(int i) {
+
+    return placed[i];
+
+  }
+
+  /**
+   * Builds a (mutable) grid holding the traps and placed pieces of this state.
+   *
+   * @return A new grid equal to the grid of this state.
+   */
+  public GameGrid toGrid() {
+
+    GameGrid grid = new GameGrid(getHeight(),getWidth());
+
+    for (int i = 0; i < getHeight(); i++) {
+      for (int j = 0; j < getWidth(); j++) {
+
+        if (rows[i][j] >= TRAP) grid.setTrap(i,j);
+
+      }
+    }
+
+    for (int i = 0; i < pieces.length; i++) {
+
+      if (placed[i]) grid.addPiece(pieces[i],Position.row(positions[i]),Position.col(positions[i]));
+
+    }
+
+    return grid;
+
+  }
+
+  /**
+   * Builds the nodes of the pieces of this state, in order.
+   *
+   * @return A new list of nodes matching the pieces of this state.
+   */
+  LinkedList<PieceNode<Piece>> toNodes() {
+
+    LinkedList<PieceNode<Piece>> nodes = new LinkedList<PieceNode<Piece>>();
+
+    for (int i = 0; i < pieces.length; i++) {
+
+      PieceNode<Piece> node = new PieceNode<Piece>(pieces[i],Position.row(positions[i]),Position.col(positions[i]));
+      if (placed[i]) node.place();
+      nodes.add(node);
+
+    }
+
+    return nodes;
+
+  }
+
+  /**
+   * Plays random commands on a game and on its state, checking that both agree.
+   */
+  public static void main(String[]args) {
+
+    Random random = new Random(1);
+    Trichromino game = new Trichromino();
+    game.generate(Trichromino.CHALLENGE);
+
+    GameState state = game.snapshot();
+    int agree = 0;
+
+    // undo and redo are left out: a game only keeps its last few steps.
+    int[] commands = {Trichromino.LEFT, Trichromino.RIGHT, Trichromino.UP, Trichromino.DOWN, Trichromino.PREV,
+      Trichromino.NEXT, Trichromino.PLACE, Trichromino.DISPLACE};
+
+    for (int i = 0; i < 10000; i++) {
+
+      int cmd = commands[random.nextInt(commands.length)];
+      game.execute(cmd);
+      state = state.apply(cmd);
+      if (state.getHash() == game.getCurrentGame().getHash()
+            && state.getPosition(state.getCurrentIndex()) == game.getCurrentNode().getPosition()) agree++;
+
+    }
+
+    System.out.println(agree + " of 10000 states agree");
+    System.out.println(state.apply(Trichromino.UNDO).apply(Trichromino.REDO) == state);
+
+    GameState trimmed = state.trimHistory(30);
+    GameState undone = trimmed;
+    for (int i = 0; i < 30; i++) {
+      undone = undone.apply(Trichromino.UNDO);
+    }
+    System.out.println(trimmed.getDepth() + " " + undone.canUndo());
+
+    Trichromino copy = new Trichromino(state);
+    System.out.println(copy.getCurrentGame().getHash() == state.getHash());
+
+  }
+
+}
@@ -71,7 +71,7 @@ public class GameplayPanel extends JPanel {
       panel.add(mainCard(gameplayFile),"gameplay");
       panel.add(mainCard(keysFile),"keybindings");
     } catch (Exception e) {
-      System.out.println(e);
+      EventLog.warn("gameplay panel not loaded","error",e);
     }
     
     return panel;
@@ -0,0 +1,131 @@
+/**
+ * A Hint suggests the next step towards the solution of a Trichromino game:
+ * either a position at which a piece should be placed or a placed piece that
+ * should be removed.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.awt.Point;
+
+public class Hint {
+
+  // kinds of hints
+  public static final int NONE = 0;
+  public static final int PLACE = 1;
+  public static final int REMOVE = 2;
+
+  private final int type;
+  private final int index;
+  private final int position; // packed, see Position
+
+  /**
+   * Constructor takes the kind of hint, the index of the piece it concerns and
+   * the position at which that piece should be placed.
+   *
+   * @param type NONE, PLACE or REMOVE
+   * @param index the index of the piece in the game's piece list (-1 for none)
+   * @param position the position (x = col, y = row) at which to place the piece,
+   *                 or null if the piece is not to be placed
+   */
+  public Hint(int type, int index, Point position) {
+
+    this(type,index,(position == null) ? Position.NONE : Position.of(position.y,position.x));
+
+  }
+
+  /**
+   * Constructor takes the kind of hint, the index of the piece it concerns and
+   * the packed position at which that piece should be placed.
+   *
+   * @param type NONE, PLACE or REMOVE
+   * @param index the index of the piece in the game's piece list (-1 for none)
+   * @param position the position (packed, see Position) at which to place the piece,
+   *                 or Position.NONE if the piece is not to be placed
+   */
+  public Hint(int type, int index, int position) {
+
+    this.type = type;
+    this.index = index;
+    this.position = position;
+
+  }
+
+  /**
+   * Returns the kind of this hint.
+   *
+   * @return NONE if no hint could be found, PLACE or REMOVE.
+   */
+  public int getType() {
+
+    return type;
+
+  }
+
+  /**
+   * Returns the index (in the game's piece list) of the piece this hint concerns.
+   *
+   * @return the index of the piece, or -1 for a hint of type NONE.
+   */
+  public int getIndex() {
+
+    return index;
+
+  }
+
+  /**
+   * Returns the position at which the piece should be placed.
+   *
+   * @return the position (x = col, y = row) for a hint of type PLACE, null otherwise.
+   */
+  public Point getPosition() {
+
+    return (position == Position.NONE) ? null : new Point(getCol(),getRow());
+
+  }
+
+  /**
+   * Returns the row at which the piece should be placed.
+   *
+   * @return the row for a hint of type PLACE.
+   */
+  public int getRow() {
+
+    return Position.row(position);
+
+  }
+
+  /**
+   * Returns the column at which the piece should be placed.
+   *
+   * @return the column for a hint of type PLACE.
+   */
+  public int getCol() {
+
+    return Position.col(position);
+
+  }
+
+  /**
+   * Returns a string representation of this hint.
+   *
+   * @return A string representation of this hint.
+   */
+  public String toString() {
+
+    switch (type) {
+
+      case PLACE :
+        return "place " + index + " at row " + getRow() + ", column " + getCol();
+      case REMOVE :
+        return "remove " + index;
+      default :
+        return "none";
+
+    }
+
+  }
+
+}
@@ -0,0 +1,355 @@
+/**
+ * HintEngine finds hints for a Trichromino game within a fixed time budget.
+ * <p>
+ * A solution of the puzzle is solved for once, in the background as soon as the
+ * engine is created and with a budget of its own, and kept.  As long as every
+ * placed piece agrees with it, a hint is read straight from the kept solution.
+ * Otherwise (or while it is not yet known) the remaining pieces are solved for
+ * from the current board within the whole budget of the hint, without waiting for
+ * the background solve; if this fails the player is told to remove a misplaced
+ * piece.
+ * <p>
+ * The state of the game is copied on the calling thread, so the search itself
+ * may run on another thread (see hintLater) while the game is being played.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class HintEngine {
+
+  private GameGrid blank; // the board of the game with traps only
+  private int[][] solution;
+  private List<Piece> pieces;
+  private ShadeConstraints constraints; // derived once, shared by every solve
+
+  private volatile int[] answer; // kept solution (packed positions), indexed like the game's pieces
+  private Future<int[]> full; // the solution from the blank board, solved in the background
+  private AtomicBoolean stop;
+
+  private final int NOT_FOUND = -1;
+
+  // time allowed for solving the puzzle from the blank board (ms)
+  private static final long SOLVE_BUDGET = 10000;
+
+  // returned by solve when the search runs out of time.
+  private static final int[] EXPIRED = new int[0];
+
+  /**
+   * Constructor copies the puzzle (board, pieces and solution) of the given game and
+   * starts solving it from the blank board in the background.
+   *
+   * @param game the game for which hints are given
+   */
+  public HintEngine(Trichromino game) {
+
+    blank = game.getCurrentGame().trapsOnly();
+    solution = game.getSolution();
+
+    pieces = new LinkedList<Piece>();
+    for (PieceNode<Piece> node : game.getPieces()) {
+      pieces.add(node.getObj());
+    }
+
+    if (solution.length == blank.getHeight() && solution[0].length == blank.getWidth())
+      constraints = new ShadeConstraints(blank,solution);
+
+    stop = new AtomicBoolean();
+    full = Solving.EXECUTOR.submit(new Callable<int[]>() {
+
+      public int[] call() {
+
+        int[] none = new int[pieces.size()];
+        Arrays.fill(none,Position.NONE);
+
+        int[] solved = solve(none,System.nanoTime() + SOLVE_BUDGET*1000000L,stop);
+        if (solved != null && solved != EXPIRED && answer == null) answer = solved;
+
+        return solved;
+
+      }
+
+    });
+
+  }
+
+  /**
+   * Gives up solving the puzzle in the background, once the engine is no longer
+   * needed.
+   */
+  public void stop() {
+
+    stop.set(true);
+    full.cancel(false);
+
+  }
+
+  /**
+   * Finds a hint for the current state of game, giving up after budget milliseconds.
+   *
+   * @param game the game (as given to the constructor, possibly since played)
+   * @param budget the time allowed for the search in milliseconds
+   * @return A hint for the current piece (or the next unplaced piece if the current
+   *         piece is correctly placed), or a hint of type NONE if none was found in time.
+   */
+  public Hint hint(Trichromino game, long budget) {
+
+    return search(positions(game),current(game),budget);
+
+  }
+
+  /**
+   * Copies the state of game and finds a hint for it on a background thread.
+   *
+   * @param game the game (as given to the constructor, possibly since played)
+   * @param budget the time allowed for the search in milliseconds
+   * @return The future hint for the state of game at the time of the call.
+   */
+  public Future<Hint> hintLater(Trichromino game, final long budget) {
+
+    final int[] placed = positions(game);
+    final int current = current(game);
+
+    return Background.EXECUTOR.submit(new Callable<Hint>() {
+
+      public Hint call() {
+
+        return search(placed,current,budget);
+
+      }
+
+    });
+
+  }
+
+  /**
+   * Finds a hint for a board on which the given pieces are placed.
+   *
+   * @param placed the packed position of each placed piece (Position.NONE for unplaced pieces)
+   * @param current the index of the selected piece
+   * @param budget the time allowed for the search in milliseconds
+   * @return A hint, or a hint of type NONE if none was found in time.
+   */
+  private Hint search(int[] placed, int current, long budget) {
+
+    long deadline = System.nanoTime() + budget*1000000L;
+
+    if (current == NOT_FOUND) return new Hint(Hint.NONE,NOT_FOUND,Position.NONE);
+
+    // the background solve is not waited for: the board is solved for with the
+    // whole budget while it runs, and whichever is known first gives the hint.
+    int[] known = answer;
+    if (known != null && agrees(known,placed)) return placeHint(known,placed,current);
+
+    int[] fromBoard = solve(placed,deadline,null);
+
+    if (fromBoard == EXPIRED) {
+      known = answer;
+      if (known != null && agrees(known,placed)) return placeHint(known,placed,current);
+      return new Hint(Hint.NONE,NOT_FOUND,Position.NONE);
+    }
+
+    if (fromBoard != null) {
+      answer = fromBoard;
+      return placeHint(fromBoard,placed,current);
+    }
+
+    return new Hint(Hint.REMOVE,misplaced(answer,placed,current),Position.NONE);
+
+  }
+
+  /**
+   * Solves for the unplaced pieces on a board holding the placed pieces.
+   *
+   * @param placed the packed position of each placed piece (Position.NONE for unplaced pieces)
+   * @param deadline the time (System.nanoTime) after which the search gives up
+   * @param flag a flag that, once raised, stops the search (null if it cannot be stopped)
+   * @return the packed position of every piece, null if there is no solution or
+   *         EXPIRED if time ran out (or the search was stopped).
+   */
+  private int[] solve(int[] placed, long deadline, AtomicBoolean flag) {
+
+    GameGrid board = blank.clone();
+    LinkedList<Piece> left = new LinkedList<Piece>();
+    int[] ids = new int[placed.length];
+    int n = 0;
+    long placedKey = 0;
+
+    for (int i = 0; i < placed.length; i++) {
+
+      if (placed[i] != Position.NONE) {
+        board.addPiece(pieces.get(i),Position.row(placed[i]),Position.col(placed[i]));
+        placedKey += Solver.pieceKey(pieces.get(i));
+      } else {
+        left.add(pieces.get(i));
+        ids[n++] = i;
+      }
+
+    }
+
+    Solver solver = new Solver(board,left,solution,constraints,placedKey);
+    solver.setDeadline(deadline);
+    solver.setStop(flag);
+    int[] result = solver.solvePositions();
+
+    if (solver.hasExpired() || (flag != null && flag.get())) return EXPIRED;
+    if (result == null) return null;
+
+    int[] solved = placed.clone();
+    for (int i = 0; i < n; i++) {
+      solved[ids[i]] = result[i];
+    }
+
+    return solved;
+
+  }
+
+  /**
+   * Determines whether or not every placed piece is at its position in the solution.
+   *
+   * @param known a solution of the puzzle
+   * @param placed the packed position of each placed piece (Position.NONE for unplaced pieces)
+   * @return true if the placed pieces agree with known.
+   */
+  private boolean agrees(int[] known, int[] placed) {
+
+    for (int i = 0; i < placed.length; i++) {
+      if (placed[i] != Position.NONE && placed[i] != known[i]) return false;
+    }
+
+    return true;
+
+  }
+
+  /**
+   * Returns a hint placing the current piece (or the next unplaced piece if the
+   * current piece is already placed) at its position in known.
+   *
+   * @param known a solution agreeing with the placed pieces
+   * @param placed the packed position of each placed piece (Position.NONE for unplaced pieces)
+   * @param current the index of the selected piece
+   * @return A hint of type PLACE, or NONE if every piece is placed.
+   */
+  private Hint placeHint(int[] known, int[] placed, int current) {
+
+    int target = current;
+
+    for (int i = 0; i < placed.length && placed[target] != Position.NONE; i++) {
+      target = (current + i + 1)%placed.length;
+    }
+
+    if (placed[target] != Position.NONE) return new Hint(Hint.NONE,NOT_FOUND,Position.NONE);
+
+    return new Hint(Hint.PLACE,target,known[target]);
+
+  }
+
+  /**
+   * Returns the index of a piece that is placed where no solution can use it: the
+   * current piece if it disagrees with the known solution, otherwise the first such
+   * piece (or the current piece/first placed piece if no solution is known).
+   *
+   * @param known a solution of the puzzle (may be null)
+   * @param placed the packed position of each placed piece (Position.NONE for unplaced pieces)
+   * @param current the index of the selected piece
+   * @return the index of a misplaced piece.
+   */
+  private int misplaced(int[] known, int[] placed, int current) {
+
+    if (placed[current] != Position.NONE && (known == null || placed[current] != known[current])) return current;
+
+    for (int i = 0; i < placed.length; i++) {
+      if (placed[i] != Position.NONE && (known == null || placed[i] != known[i])) return i;
+    }
+
+    return current;
+
+  }
+
+  /**
+   * Copies the position of every placed piece of game.
+   *
+   * @param game the target game
+   * @return the packed position of each piece (Position.NONE for unplaced pieces).
+   */
+  private int[] positions(Trichromino game) {
+
+    int[] placed = new int[pieces.size()];
+    int i = 0;
+
+    for (PieceNode<Piece> node : game.getPieces()) {
+
+      placed[i] = node.isPlaced() ? node.getPosition() : Position.NONE;
+      i++;
+
+    }
+
+    return placed;
+
+  }
+
+  /**
+   * Returns the index of the selected piece of game.
+   *
+   * @param game the target game
+   * @return the index of the selected piece, or NOT_FOUND if game is empty or over.
+   */
+  private int current(Trichromino game) {
+
+    if (game.isEmpty() || game.isOver()) return NOT_FOUND;
+
+    return game.getPieces().indexOf(game.getCurrentNode());
+
+  }
+
+  /**
+   * Holds the thread on which puzzles are solved from their blank board (created
+   * on first use), apart from the thread of hintLater so hints are not held up.
+   */
+  private static class Solving {
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+      public Thread newThread(Runnable r) {
+
+        Thread thread = new Thread(r,"trichromino-solutions");
+        thread.setDaemon(true);
+        return thread;
+
+      }
+
+    });
+
+  }
+
+  /**
+   * Holds the thread on which background hints are searched (created on first use).
+   */
+  private static class Background {
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+      public Thread newThread(Runnable r) {
+
+        Thread thread = new Thread(r,"trichromino-hints");
+        thread.setDaemon(true);
+        return thread;
+
+      }
+
+    });
+
+  }
+
+}
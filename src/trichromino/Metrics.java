@@ -0,0 +1,432 @@
+/**
+ * Metrics keeps the timers measuring the costly operations of the game engine
+ * (commands, evaluation, generation, saving and loading), each counting its events
+ * and recording their durations in a histogram, and counters of events whose
+ * durations are not recorded (such as each kind of command).
+ * <p>
+ * Metrics are off unless the program is started with -Dtrichromino.metrics=true.
+ * ENABLED is a static final field, so when metrics are off the JIT compiler drops
+ * the code guarded by it and the timers cost nothing.  When on, every timer and
+ * counter is also published over JMX as trichromino:type=Metrics,name=(its name).
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public final class Metrics {
+
+  public static final boolean ENABLED = Boolean.getBoolean("trichromino.metrics");
+
+  private static final ConcurrentHashMap<String,Timer> TIMERS = new ConcurrentHashMap<String,Timer>();
+  private static final ConcurrentHashMap<String,Counter> COUNTERS = new ConcurrentHashMap<String,Counter>();
+
+  private Metrics() {
+
+  }
+
+  /**
+   * Returns the timer with the given name, creating (and publishing) it if needed.
+   *
+   * @param name the name of the timer
+   * @return The timer with that name.
+   */
+  public static Timer timer(String name) {
+
+    Timer timer = TIMERS.get(name);
+
+    if (timer == null) {
+
+      Timer created = new Timer(name);
+      timer = TIMERS.putIfAbsent(name,created);
+
+      if (timer == null) {
+        timer = created;
+        if (ENABLED) publish(timer,name);
+      }
+
+    }
+
+    return timer;
+
+  }
+
+  /**
+   * Returns the counter with the given name, creating (and publishing) it if needed.
+   *
+   * @param name the name of the counter
+   * @return The counter with that name.
+   */
+  public static Counter counter(String name) {
+
+    Counter counter = COUNTERS.get(name);
+
+    if (counter == null) {
+
+      Counter created = new Counter(name);
+      counter = COUNTERS.putIfAbsent(name,created);
+
+      if (counter == null) {
+        counter = created;
+        if (ENABLED) publish(counter,name);
+      }
+
+    }
+
+    return counter;
+
+  }
+
+  /**
+   * Returns every timer, by name.
+   *
+   * @return A sorted map of the timers.
+   */
+  public static Map<String,Timer> timers() {
+
+    return new TreeMap<String,Timer>(TIMERS);
+
+  }
+
+  /**
+   * Returns every counter, by name.
+   *
+   * @return A sorted map of the counters.
+   */
+  public static Map<String,Counter> counters() {
+
+    return new TreeMap<String,Counter>(COUNTERS);
+
+  }
+
+  /**
+   * Returns one line per timer or counter that has recorded an event.
+   *
+   * @return A report of the timers and counters.
+   */
+  public static String report() {
+
+    StringBuilder report = new StringBuilder();
+
+    for (Timer timer : timers().values()) {
+      if (timer.getCount() > 0) report.append(timer).append('\n');
+    }
+
+    for (Counter counter : counters().values()) {
+      if (counter.getCount() > 0) report.append(counter).append('\n');
+    }
+
+    return report.toString();
+
+  }
+
+  /**
+   * Registers a timer or counter with the platform MBean server.  Failing to do so
+   * only loses its JMX view.
+   *
+   * @param bean the timer or counter to publish
+   * @param name the name of the timer or counter
+   */
+  private static void publish(Object bean, String name) {
+
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+        .registerMBean(bean,new ObjectName("trichromino:type=Metrics,name=" + ObjectName.quote(name)));
+    } catch (JMException e) {
+      // already registered by another class loader, or an invalid name
+    } catch (SecurityException e) {
+      // not allowed to publish
+    }
+
+  }
+
+  /**
+   * The JMX view of a Timer.
+   */
+  public interface TimerMBean {
+
+    String getName();
+
+    long getCount();
+
+    long getMeanNanos();
+
+    long getMaxNanos();
+
+    long getMedianNanos();
+
+    long getP99Nanos();
+
+    void reset();
+
+  }
+
+  /**
+   * A Timer counts events and records their durations in a histogram of 64
+   * buckets, bucket i holding durations of less than 2^i nanoseconds (and no less
+   * than 2^(i-1)).  Timers may be used by any number of threads.
+   */
+  public static final class Timer implements TimerMBean {
+
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+    private Timer(String name) {
+
+      this.name = name;
+
+    }
+
+    /**
+     * Records one event of the given duration.
+     *
+     * @param nanos the duration of the event in nanoseconds
+     */
+    public void record(long nanos) {
+
+      if (nanos < 0) nanos = 0;
+
+      count.incrementAndGet();
+      total.addAndGet(nanos);
+      buckets.incrementAndGet(Math.min(63,64 - Long.numberOfLeadingZeros(nanos)));
+
+      long longest = max.get();
+      while (nanos > longest && !max.compareAndSet(longest,nanos)) {
+        longest = max.get();
+      }
+
+    }
+
+    /**
+     * Records one event that started at the given time and ends now.
+     *
+     * @param start the start of the event (System.nanoTime)
+     */
+    public void stop(long start) {
+
+      record(System.nanoTime() - start);
+
+    }
+
+    public String getName() {
+
+      return name;
+
+    }
+
+    public long getCount() {
+
+      return count.get();
+
+    }
+
+    public long getMeanNanos() {
+
+      long n = count.get();
+
+      return (n == 0) ? 0 : total.get()/n;
+
+    }
+
+    public long getMaxNanos() {
+
+      return max.get();
+
+    }
+
+    public long getMedianNanos() {
+
+      return percentile(50);
+
+    }
+
+    public long getP99Nanos() {
+
+      return percentile(99);
+
+    }
+
+    /**
+     * Returns an upper bound on the given percentile of the recorded durations
+     * (the upper end of the bucket holding it).
+     *
+     * @param p the percentile, between 0 and 100
+     * @return The percentile in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long percentile(double p) {
+
+      long n = 0;
+      for (int i = 0; i < 64; i++) {
+        n += buckets.get(i);
+      }
+
+      long target = (long) Math.ceil(n*p/100);
+      long seen = 0;
+
+      for (int i = 0; i < 64 && n > 0; i++) {
+
+        seen += buckets.get(i);
+        if (seen >= Math.max(target,1)) return (i == 63) ? Long.MAX_VALUE : 1L << i;
+
+      }
+
+      return 0;
+
+    }
+
+    /**
+     * Forgets every recorded event.
+     */
+    public void reset() {
+
+      count.set(0);
+      total.set(0);
+      max.set(0);
+      for (int i = 0; i < 64; i++) {
+        buckets.set(i,0);
+      }
+
+    }
+
+    /**
+     * Returns a summary of this timer.
+     *
+     * @return the name, count and durations of this timer.
+     */
+    public String toString() {
+
+      return name + ": " + getCount() + " events, mean " + getMeanNanos() + "ns, median < " + getMedianNanos()
+        + "ns, p99 < " + getP99Nanos() + "ns, max " + getMaxNanos() + "ns";
+
+    }
+
+  }
+
+  /**
+   * The JMX view of a Counter.
+   */
+  public interface CounterMBean {
+
+    String getName();
+
+    long getCount();
+
+    void reset();
+
+  }
+
+  /**
+   * A Counter counts events.  Counters may be used by any number of threads.
+   */
+  public static final class Counter implements CounterMBean {
+
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+
+    private Counter(String name) {
+
+      this.name = name;
+
+    }
+
+    /**
+     * Records one event.
+     */
+    public void increment() {
+
+      count.incrementAndGet();
+
+    }
+
+    public String getName() {
+
+      return name;
+
+    }
+
+    public long getCount() {
+
+      return count.get();
+
+    }
+
+    /**
+     * Forgets every recorded event.
+     */
+    public void reset() {
+
+      count.set(0);
+
+    }
+
+    /**
+     * Returns a summary of this counter.
+     *
+     * @return the name and count of this counter.
+     */
+    public String toString() {
+
+      return name + ": " + getCount() + " events";
+
+    }
+
+  }
+
+  /**
+   * Plays a few games with metrics on (set trichromino.metrics=true) and prints the
+   * report, as read from the timers and over JMX.
+   */
+  public static void main(String[]args) throws Exception {
+
+    System.out.println("metrics " + (ENABLED ? "on" : "off (run with -Dtrichromino.metrics=true)"));
+
+    Trichromino game = null;
+    Random random = new Random(1);
+
+    for (int i = 0; i < 20; i++) {
+
+      game = new Trichromino();
+      game.generate(Trichromino.CHALLENGE);
+
+      for (int j = 0; j < 5000; j++) {
+        game.execute(random.nextInt(Trichromino.RIGHT + 1));
+      }
+
+      // commands called directly, as the side panel does
+      game.next();
+      game.prev();
+      game.stepper(Trichromino.UNDO);
+
+      game.getCurrentGame().evaluate();
+
+    }
+
+    String file = System.getProperty("java.io.tmpdir") + "/metrics-test";
+    game.save(file);
+    Trichromino.fromFile(file);
+
+    System.out.print(report());
+
+    if (ENABLED) {
+      System.out.println("over JMX, game.command count = " + ManagementFactory.getPlatformMBeanServer()
+                           .getAttribute(new ObjectName("trichromino:type=Metrics,name=\"game.command\""),"Count")
+                           + ", game.command.place count = " + ManagementFactory.getPlatformMBeanServer()
+                           .getAttribute(new ObjectName("trichromino:type=Metrics,name=\"game.command.place\""),"Count"));
+    }
+
+  }
+
+}
@@ -0,0 +1,290 @@
+/**
+ * ParallelSolver splits the search made by Solver at its top levels into
+ * fork-join tasks.  Every task places one piece on its own copy of the board;
+ * below the split depth each task runs an ordinary Solver on its copy.
+ * <p>
+ * All tasks share the shade constraints of the puzzle and one stop flag which
+ * is raised as soon as any of them finds a solution, and may share one
+ * TranspositionTable.  The keys of the table cover the pieces placed by parent
+ * tasks, so a dead end found by one task is found again by any other task
+ * reaching the same board with the same pieces.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ParallelSolver {
+
+  private GameGrid board;
+  private int[][] solution;
+  private List<Piece> pieces;
+
+  private ForkJoinPool pool;
+  private TranspositionTable table;
+  private ShadeConstraints constraints;
+  private int splitDepth;
+
+  private AtomicBoolean found;
+  private AtomicLong nodes;
+
+  private final int DEFAULT_SPLIT = 2;
+
+  /**
+   * Constructor takes the same arguments as a Solver.
+   *
+   * @param board the starting board
+   * @param toPlace the pieces to be placed on the board
+   * @param target the evaluated grid to be matched
+   */
+  public ParallelSolver(GameGrid board, List<Piece> toPlace, int[][] target) {
+
+    this.board = board.clone();
+    solution = target;
+    pieces = new LinkedList<Piece>(toPlace);
+
+    splitDepth = DEFAULT_SPLIT;
+
+    if (target.length == this.board.getHeight() && target[0].length == this.board.getWidth())
+      constraints = new ShadeConstraints(this.board,target);
+
+    found = new AtomicBoolean();
+    nodes = new AtomicLong();
+
+  }
+
+  /**
+   * Sets the pool in which the search runs (by default a pool shared by all
+   * parallel solvers, with one thread per processor).
+   *
+   * @param p the pool used by this solver
+   */
+  public void setPool(ForkJoinPool p) {
+
+    pool = p;
+
+  }
+
+  /**
+   * Sets the number of placements searched as separate tasks before each task
+   * falls back to a sequential search.
+   *
+   * @param depth the split depth
+   * @throws IllegalArgumentException If depth is negative.
+   */
+  public void setSplitDepth(int depth) {
+
+    if (depth < 0) throw new IllegalArgumentException("setSplitDepth: depth must not be negative");
+
+    splitDepth = depth;
+
+  }
+
+  /**
+   * Sets the table shared by all tasks to record dead ends (null disables recording).
+   *
+   * @param t the transposition table used by this solver
+   */
+  public void setTable(TranspositionTable t) {
+
+    table = t;
+
+  }
+
+  /**
+   * Returns the number of placements made by all tasks of the last search.
+   *
+   * @return the number of nodes visited in the last search.
+   */
+  public long getNodes() {
+
+    return nodes.get();
+
+  }
+
+  /**
+   * Searches for a solution.
+   *
+   * @return the positions (x = col, y = row) at which each piece is placed, in
+   *         the order the pieces were given, or null if there is no solution.
+   */
+  public Point[] solve() {
+
+    return Solver.toPoints(solvePositions());
+
+  }
+
+  /**
+   * Searches for a solution.
+   *
+   * @return the positions (packed, see Position) at which each piece is placed, in
+   *         the order the pieces were given, or null if there is no solution.
+   */
+  public int[] solvePositions() {
+
+    found.set(false);
+    nodes.set(0);
+
+    int[] ids = new int[pieces.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = i;
+    }
+
+    ForkJoinPool p = (pool != null) ? pool : SharedPool.POOL;
+
+    int[] placed = new int[ids.length];
+    Arrays.fill(placed,Position.NONE);
+
+    return p.invoke(new SearchTask(board.clone(),ids,placed,0,0));
+
+  }
+
+  /**
+   * Searches the boards reached by placing each piece able to fill the first open
+   * square of a board, one task per piece.
+   */
+  private class SearchTask extends RecursiveTask<int[]> {
+
+    private GameGrid grid;
+    private int[] ids; // indices (in pieces) of the pieces left to place
+    private int[] placed; // packed positions of the pieces already placed
+    private long placedKey; // sum of the keys of the pieces already placed (see Solver.pieceKey)
+    private int depth;
+
+    private static final long serialVersionUID = 1;
+
+    /**
+     * Constructor takes a board owned by this task and the pieces left to place on it.
+     *
+     * @param grid the board searched by this task
+     * @param ids the indices of the pieces left to place
+     * @param placed the positions of the pieces placed so far
+     * @param placedKey the sum of the keys of the pieces placed so far
+     * @param depth the number of pieces placed by parent tasks
+     */
+    private SearchTask(GameGrid grid, int[] ids, int[] placed, long placedKey, int depth) {
+
+      this.grid = grid;
+      this.ids = ids;
+      this.placed = placed;
+      this.placedKey = placedKey;
+      this.depth = depth;
+
+    }
+
+    protected int[] compute() {
+
+      if (found.get()) return null;
+
+      LinkedList<Piece> left = new LinkedList<Piece>();
+      for (int id : ids) {
+        left.add(pieces.get(id));
+      }
+
+      Solver solver = new Solver(grid,left,solution,constraints,placedKey);
+      solver.setTable(table);
+      solver.setStop(found);
+
+      int[] branches = (depth < splitDepth) ? solver.branches() : null;
+
+      if (branches == null) {
+
+        int[] result = solver.solvePositions();
+        nodes.addAndGet(solver.getNodes());
+
+        if (result == null || found.getAndSet(true)) return null;
+
+        int[] solved = placed.clone();
+        for (int i = 0; i < ids.length; i++) {
+          solved[ids[i]] = result[i];
+        }
+
+        return solved;
+
+      }
+
+      LinkedList<SearchTask> tasks = new LinkedList<SearchTask>();
+
+      for (int i = 0; i < branches.length; i++) {
+
+        if (branches[i] == Position.NONE) continue;
+
+        Piece piece = left.get(i);
+        GameGrid next = grid.clone();
+        next.addPiece(piece,Position.row(branches[i]),Position.col(branches[i]));
+        nodes.incrementAndGet();
+
+        int[] rest = new int[ids.length - 1];
+        System.arraycopy(ids,0,rest,0,i);
+        System.arraycopy(ids,i + 1,rest,i,rest.length - i);
+
+        int[] nextPlaced = placed.clone();
+        nextPlaced[ids[i]] = branches[i];
+
+        tasks.add(new SearchTask(next,rest,nextPlaced,placedKey + Solver.pieceKey(piece),depth + 1));
+
+      }
+
+      invokeAll(tasks);
+
+      for (SearchTask task : tasks) {
+
+        int[] result = task.join();
+        if (result != null) return result;
+
+      }
+
+      return null;
+
+    }
+
+  }
+
+  /**
+   * Holds the pool used by solvers without a pool of their own (created on first use).
+   */
+  private static class SharedPool {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+  }
+
+  /**
+   * Compares the time taken by sequential and parallel searches on generated grids.
+   */
+  public static void main(String[]args) {
+
+    for (int size = 10; size <= 20; size += 5) {
+
+      GameGrid board = new GameGrid(size,size);
+      new BasicGameGenerator(board).sEasyGrid();
+
+      int[][] target = board.evaluate();
+      LinkedList<Piece> pieces = new LinkedList<Piece>();
+      for (PieceNode<Piece> node : board.removeAll()) {
+        pieces.add(node.getObj());
+      }
+
+      long start = System.nanoTime();
+      Point[] sequential = new Solver(board,pieces,target).solve();
+      long middle = System.nanoTime();
+      Point[] parallel = new ParallelSolver(board,pieces,target).solve();
+      long end = System.nanoTime();
+
+      System.out.println(size + "x" + size + " " + (sequential != null) + " " + (parallel != null)
+                           + " sequential: " + (middle-start)/1000 + "us parallel: " + (end-middle)/1000 + "us");
+
+    }
+
+  }
+
+}
@@ -5,6 +5,9 @@
  * added outside the bounds of this matrix.
  * 
  * Pieces can be cropped.  However, a cropped piece cannot be changed.
+ * <p>
+ * The matrix is stored as a single byte array, row by row; getMatrix builds the
+ * int[][] form when it is first asked for.
  * 
  * @author Angela Wu (primary creator)
  * @author Lisa Li
@@ -13,22 +16,41 @@
 
 package trichromino;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.Arrays;
 
 public class Piece implements Serializable {
     
-  private int[][] matrix;
+  private byte[] cells; // the matrix, row-major (MAX_WIDTH squares per row)
+  private transient volatile int[][] matrix; // built by getMatrix
   private int id, numSquares;
   
   private boolean isCropped;
   
-  private final int MAX_WIDTH, MAX_HEIGHT; 
+  private int MAX_WIDTH, MAX_HEIGHT; 
   private final int BLACK = 3;
   private final int WHITE = 1;
   private final int EMPTY = 0;
 
   private static final long serialVersionUID = 1;
   
+  // the matrix is written as an int[][] so that saved games remain readable.
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("matrix", int[][].class),
+    new ObjectStreamField("id", Integer.TYPE),
+    new ObjectStreamField("numSquares", Integer.TYPE),
+    new ObjectStreamField("isCropped", Boolean.TYPE),
+    new ObjectStreamField("MAX_WIDTH", Integer.TYPE),
+    new ObjectStreamField("MAX_HEIGHT", Integer.TYPE),
+    new ObjectStreamField("BLACK", Integer.TYPE),
+    new ObjectStreamField("WHITE", Integer.TYPE),
+    new ObjectStreamField("EMPTY", Integer.TYPE)
+  };
+  
   
   /**
    * Constructor takes in the maximum dimensions of this piece as well
@@ -49,7 +71,7 @@ public class Piece implements Serializable {
     numSquares = 0;
     MAX_WIDTH = maxWidth;
     MAX_HEIGHT = maxHeight;
-    matrix = new int[MAX_HEIGHT][MAX_WIDTH];
+    cells = new byte[MAX_HEIGHT*MAX_WIDTH];
     
     isCropped = false;
     
@@ -67,13 +89,41 @@ public class Piece implements Serializable {
   }
   
   /**
-   * Returns the array definition of this piece.
+   * Returns the array definition of this piece.  The array is built on the first call
+   * and kept up to date afterwards; it must not be changed.
    * 
    * @return an int[][] corresponding to this piece.
    */
   public int[][] getMatrix() {
     
-    return matrix;
+    int[][] view = matrix;
+    
+    if (view == null) {
+      
+      view = new int[MAX_HEIGHT][MAX_WIDTH];
+      for (int i = 0; i < MAX_HEIGHT; i++) {
+        for (int j = 0; j < MAX_WIDTH; j++) {
+          view[i][j] = cells[i*MAX_WIDTH + j];
+        }
+      }
+      
+      matrix = view;
+      
+    }
+    
+    return view;
+    
+  }
+  
+  /**
+   * Returns the squares of this piece row by row (getWidth squares per row), as used
+   * by the loops of GameGrid and the solvers.  The array must not be changed.
+   * 
+   * @return the backing array of this piece.
+   */
+  byte[] getCells() {
+    
+    return cells;
     
   }
   
@@ -122,11 +172,10 @@ public class Piece implements Serializable {
     
     if (isCropped) throw new IllegalStateException("addSquare: Squares cannot be added to a cropped piece");
     
-    try {
-      matrix[n][m] = id;
-    } catch (IndexOutOfBoundsException e) {
+    if (n < 0 || m < 0 || n >= MAX_HEIGHT || m >= MAX_WIDTH) 
       throw new IndexOutOfBoundsException("addSquare: n = " + n + "; m = " +m);
-    }
+    
+    set(n,m,id);
     
     numSquares++;
     
@@ -144,7 +193,10 @@ public class Piece implements Serializable {
     
     if (isCropped) throw new IllegalStateException("removeSquare: Squares cannot be removed from a cropped piece");
       
-    matrix[n][m] = EMPTY;
+    if (n < 0 || m < 0 || n >= MAX_HEIGHT || m >= MAX_WIDTH) 
+      throw new ArrayIndexOutOfBoundsException("removeSquare: n = " + n + "; m = " +m);
+    
+    set(n,m,EMPTY);
     
   }
   
@@ -158,11 +210,26 @@ public class Piece implements Serializable {
    */
   private boolean isSquare(int n, int m) {
     
-    try {
-      return matrix[n][m]==id;
-    } catch (IndexOutOfBoundsException e) {
+    if (n < 0 || m < 0 || n >= MAX_HEIGHT || m >= MAX_WIDTH) 
       throw new IndexOutOfBoundsException("isSquare: n = " + n + "; m = " +m);
-    }
+    
+    return cells[n*MAX_WIDTH + m]==id;
+    
+  }
+  
+  /**
+   * Sets the square at the specified location, in the matrix built by getMatrix too.
+   * 
+   * @param n the target row
+   * @param m the target column
+   * @param value the new value of the square
+   */
+  private void set(int n, int m, int value) {
+    
+    cells[n*MAX_WIDTH + m] = (byte) value;
+    
+    int[][] view = matrix;
+    if (view != null) view[n][m] = value;
     
   }
   
@@ -174,8 +241,8 @@ public class Piece implements Serializable {
    */
   private boolean isEmptyRow(int n) {
     
-    for (int i = 0; i<MAX_HEIGHT ; i++) {
-      if (matrix[n][i]>0) return false;
+    for (int i = 0; i<MAX_WIDTH ; i++) {
+      if (cells[n*MAX_WIDTH + i]>0) return false;
     } 
     return true;
     
@@ -190,7 +257,7 @@ public class Piece implements Serializable {
   private boolean isEmptyCol(int m) {
     
     for (int i = 0; i<MAX_HEIGHT ; i++) {
-      if (matrix[i][m]>0) return false;
+      if (cells[i*MAX_WIDTH + m]>0) return false;
     } 
     return true;
     
@@ -295,11 +362,14 @@ public class Piece implements Serializable {
     
     if (isEmpty()) throw new IllegalStateException("crop: Piece is empty");
     
-    Piece cropped = new Piece(maxCol()-minCol()+1,maxRow()-minRow()+1,id);
-    for (int i = minRow(); i<=maxRow(); i++) {
-      for (int j = minCol(); j<=maxCol();j++) {
+    int top = minRow(), bottom = maxRow();
+    int left = minCol(), right = maxCol();
+    
+    Piece cropped = new Piece(right-left+1,bottom-top+1,id);
+    for (int i = top; i<=bottom; i++) {
+      for (int j = left; j<=right;j++) {
         
-        if (isSquare(i,j)) cropped.addSquare(i-minRow(),j-minCol());
+        if (isSquare(i,j)) cropped.addSquare(i-top,j-left);
         
       }     
     }
@@ -319,16 +389,56 @@ public class Piece implements Serializable {
     
     if (this.MAX_WIDTH != p.MAX_WIDTH || this.MAX_HEIGHT!=p.MAX_HEIGHT) return false;
     
-    for (int i = 0 ; i<MAX_HEIGHT ; i++) {
-      for (int j = 0; j<MAX_WIDTH ; j++) {
-        if (this.matrix[i][j] != p.matrix[i][j]) return false;
-      }
-    }
+    return Arrays.equals(this.cells,p.cells);
     
-    return true;
+  }
+  
+  
+  /**
+   * Writes this piece with its matrix as an int[][] (see serialPersistentFields).
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("matrix",getMatrix());
+    fields.put("id",id);
+    fields.put("numSquares",numSquares);
+    fields.put("isCropped",isCropped);
+    fields.put("MAX_WIDTH",MAX_WIDTH);
+    fields.put("MAX_HEIGHT",MAX_HEIGHT);
+    fields.put("BLACK",BLACK);
+    fields.put("WHITE",WHITE);
+    fields.put("EMPTY",EMPTY);
+    out.writeFields();
     
   }
   
+  /**
+   * Reads a piece written by writeObject.
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    
+    ObjectInputStream.GetField fields = in.readFields();
+    id = fields.get("id",0);
+    numSquares = fields.get("numSquares",0);
+    isCropped = fields.get("isCropped",false);
+    MAX_WIDTH = fields.get("MAX_WIDTH",0);
+    MAX_HEIGHT = fields.get("MAX_HEIGHT",0);
+    
+    int[][] view = (int[][]) fields.get("matrix",null);
+    if (view == null || view.length != MAX_HEIGHT) throw new IOException("readObject: damaged piece");
+    
+    cells = new byte[MAX_HEIGHT*MAX_WIDTH];
+    for (int i = 0; i < MAX_HEIGHT; i++) {
+      
+      if (view[i].length != MAX_WIDTH) throw new IOException("readObject: damaged piece");
+      for (int j = 0; j < MAX_WIDTH; j++) {
+        cells[i*MAX_WIDTH + j] = (byte) view[i][j];
+      }
+      
+    }
+    
+  }
   
   /**
    * Returns a string representation of this piece, using a
@@ -338,18 +448,7 @@ public class Piece implements Serializable {
    */
   public String toString() {
     
-    String s = "";
-    for (int i = 0; i < MAX_HEIGHT ; i++) {
-      for (int j = 0; j < MAX_WIDTH ; j++) {
-        
-        s += matrix[i][j] + " " ;
-        
-      }
-      
-      s += "\n";
-        
-    }
-    return s;
+    return BoardWriter.toText(this);
     
   }
   
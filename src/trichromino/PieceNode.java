@@ -14,12 +14,16 @@
 package trichromino;
 
 import java.awt.Point;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 public class PieceNode<T> implements Serializable, Cloneable{
   
   private T obj; // stored object
-  private Point floatLoc; // the location at which the object is "floating"
+  private int row, col; // the location at which the object is "floating"
   
   private boolean isPlaced;
   
@@ -28,6 +32,15 @@ public class PieceNode<T> implements Serializable, Cloneable{
   
   private static final long serialVersionUID = 1;
   
+  // the location is written as a Point so that saved games remain readable.
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("obj", Object.class),
+    new ObjectStreamField("floatLoc", Point.class),
+    new ObjectStreamField("isPlaced", Boolean.TYPE),
+    new ObjectStreamField("NULL_PIECE", Integer.TYPE),
+    new ObjectStreamField("START_CORNER", Integer.TYPE)
+  };
+  
   /**
    * Default constructor sets the stored object and location to null/a predefined
    * null pointer.
@@ -38,7 +51,7 @@ public class PieceNode<T> implements Serializable, Cloneable{
     
     isPlaced = false;
     
-    floatLoc = new Point(NULL_PIECE, NULL_PIECE);
+    row = col = NULL_PIECE;
     
   }
   
@@ -54,7 +67,7 @@ public class PieceNode<T> implements Serializable, Cloneable{
     
     isPlaced = false;
     
-    floatLoc = new Point(START_CORNER,START_CORNER);
+    row = col = START_CORNER;
     
   }
   
@@ -67,11 +80,26 @@ public class PieceNode<T> implements Serializable, Cloneable{
    */
   public PieceNode(T object, Point p) {
     
+    this(object,p.y,p.x);
+    
+  }
+  
+  /**
+   * Constructor takes a T and a location, placing the T
+   * at the location on the "board".
+   * 
+   * @param object the T object being stored.
+   * @param n the row at which object is being stored.
+   * @param m the column at which object is being stored.
+   */
+  public PieceNode(T object, int n, int m) {
+    
     obj = object;
     
     isPlaced = false;
     
-    floatLoc = p;
+    row = n;
+    col = m;
     
   }
   
@@ -85,7 +113,8 @@ public class PieceNode<T> implements Serializable, Cloneable{
     PieceNode<T> clone = new PieceNode<T>(obj);
     clone.isPlaced = this.isPlaced;
     
-    clone.floatLoc = (Point) this.floatLoc.clone();
+    clone.row = this.row;
+    clone.col = this.col;
     
     return clone;
     
@@ -109,7 +138,7 @@ public class PieceNode<T> implements Serializable, Cloneable{
     
     if (isPlaced) throw new IllegalStateException("left: cannot be called on a placed object");
     
-    floatLoc.x--;
+    col--;
     
   }
   
@@ -120,7 +149,7 @@ public class PieceNode<T> implements Serializable, Cloneable{
     
     if (isPlaced) throw new IllegalStateException("right: cannot be called on a placed object");
     
-    floatLoc.x++;
+    col++;
     
   } 
   
@@ -131,7 +160,7 @@ public class PieceNode<T> implements Serializable, Cloneable{
     
     if (isPlaced) throw new IllegalStateException("up: cannot be called on a placed object");
     
-    floatLoc.y--;
+    row--;
     
   }
   
@@ -142,7 +171,7 @@ public class PieceNode<T> implements Serializable, Cloneable{
     
     if (isPlaced) throw new IllegalStateException("down: cannot be called on a placed object");
     
-    floatLoc.y++;
+    row++;
     
   }
   
@@ -163,7 +192,8 @@ public class PieceNode<T> implements Serializable, Cloneable{
    */
   public void hover(int n, int m) {
     
-    floatLoc.setLocation(m,n);
+    row = n;
+    col = m;
     
   }
   
@@ -174,7 +204,7 @@ public class PieceNode<T> implements Serializable, Cloneable{
    */
   public void hover(Point p) {
     
-    floatLoc.setLocation(p);
+    hover(p.y,p.x);
     
   }
   
@@ -192,13 +222,48 @@ public class PieceNode<T> implements Serializable, Cloneable{
   }
   
   /**
-   * Returns the point at which the stored object is floating.
+   * Returns the point at which the stored object is floating.  The point is a
+   * copy; changing it does not move the object.
    * 
-   * @return The point at which the stored object is floating.
+   * @return The point (x = col, y = row) at which the stored object is floating.
    */
   public Point getFloatPos() {
     
-    return floatLoc;
+    return new Point(col,row);
+    
+  }
+  
+  /**
+   * Returns the row at which the stored object is floating.
+   * 
+   * @return The row at which the stored object is floating.
+   */
+  public int getRow() {
+    
+    return row;
+    
+  }
+  
+  /**
+   * Returns the column at which the stored object is floating.
+   * 
+   * @return The column at which the stored object is floating.
+   */
+  public int getCol() {
+    
+    return col;
+    
+  }
+  
+  /**
+   * Returns the location at which the stored object is floating, packed into an
+   * int (see Position).
+   * 
+   * @return The packed location at which the stored object is floating.
+   */
+  public int getPosition() {
+    
+    return Position.of(row,col);
     
   }
   
@@ -229,7 +294,7 @@ public class PieceNode<T> implements Serializable, Cloneable{
    */
   public void reset() {
     
-    floatLoc.setLocation(START_CORNER,START_CORNER);
+    row = col = START_CORNER;
     if (this.isPlaced) this.isPlaced = false;
     
   }
@@ -244,7 +309,8 @@ public class PieceNode<T> implements Serializable, Cloneable{
    */
   public boolean equals(PieceNode<T> node) {
     
-    return (this.obj.equals(node.obj) && this.floatLoc.equals(node.floatLoc) && this.isPlaced == node.isPlaced);
+    return (this.obj.equals(node.obj) && this.row == node.row && this.col == node.col 
+              && this.isPlaced == node.isPlaced);
     
   }
   
@@ -256,7 +322,42 @@ public class PieceNode<T> implements Serializable, Cloneable{
    */
   public String toString() {
     
-    return obj.toString() + isPlaced() + "\n" + floatLoc;
+    return obj.toString() + isPlaced() + "\n" + getFloatPos();
+    
+  }
+  
+  /**
+   * Writes this node with its location as a Point (the form in which games
+   * have always been saved).
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("obj",obj);
+    fields.put("floatLoc",getFloatPos());
+    fields.put("isPlaced",isPlaced);
+    fields.put("NULL_PIECE",NULL_PIECE);
+    fields.put("START_CORNER",START_CORNER);
+    out.writeFields();
+    
+  }
+  
+  /**
+   * Reads a node written by writeObject.
+   */
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    
+    ObjectInputStream.GetField fields = in.readFields();
+    obj = (T) fields.get("obj",null);
+    isPlaced = fields.get("isPlaced",false);
+    
+    Point p = (Point) fields.get("floatLoc",null);
+    if (p == null) row = col = NULL_PIECE;
+    else {
+      row = p.y;
+      col = p.x;
+    }
     
   }
   
@@ -279,6 +380,10 @@ public class PieceNode<T> implements Serializable, Cloneable{
     testNode.reset();
     System.out.println(testNode);
     
+    testNode.hover(2,7);
+    testNode.getFloatPos().translate(1,1); // a copy; the node does not move
+    System.out.println(Position.toString(testNode.getPosition()) + " " + testNode.getFloatPos());
+    
     
   }
   
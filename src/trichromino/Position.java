@@ -0,0 +1,77 @@
+/**
+ * Position packs a row and column of a grid into a single int, so that positions
+ * can be stored, compared and passed around without allocating objects (and without
+ * depending on java.awt.Point).
+ * <p>
+ * The row is kept in the upper 16 bits and the column in the lower 16 bits, both
+ * as signed values, so positions off the grid (such as -1) may also be packed.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+public final class Position {
+
+  // denotes the absence of a position (e.g. an unplaced piece).
+  public static final int NONE = Integer.MIN_VALUE;
+
+  private static final int COL_BITS = 16;
+  private static final int COL_MASK = 0xFFFF;
+
+  private Position() {
+
+  }
+
+  /**
+   * Packs the given row and column into a position.
+   *
+   * @param row the target row (between -32768 and 32767)
+   * @param col the target column (between -32768 and 32767)
+   * @return the packed position.
+   */
+  public static int of(int row, int col) {
+
+    return row << COL_BITS | col & COL_MASK;
+
+  }
+
+  /**
+   * Returns the row of a packed position.
+   *
+   * @param position the packed position
+   * @return the row of position.
+   */
+  public static int row(int position) {
+
+    return position >> COL_BITS;
+
+  }
+
+  /**
+   * Returns the column of a packed position.
+   *
+   * @param position the packed position
+   * @return the column of position.
+   */
+  public static int col(int position) {
+
+    return (short) position;
+
+  }
+
+  /**
+   * Returns a string representation of a packed position.
+   *
+   * @param position the packed position
+   * @return A string representation of position.
+   */
+  public static String toString(int position) {
+
+    if (position == NONE) return "none";
+
+    return "(" + row(position) + ", " + col(position) + ")";
+
+  }
+
+}
@@ -0,0 +1,442 @@
+/**
+ * A PuzzleArchive is a stream of any number of puzzles (see PuzzleFormat), written
+ * and read one puzzle at a time so that collections of any size are moved in
+ * constant memory.
+ * <p>
+ * An archive starts with the bytes "TCA1" and a flags byte (bit 0 set if blocks are
+ * compressed).  Puzzles are then grouped into blocks of about BLOCK_SIZE bytes, each
+ * block being the number of puzzles it holds, its length before and after
+ * compression and its contents.  A block of no puzzles ends the archive.  Within a
+ * block every puzzle is its length (as a base-128 varint) followed by its line of
+ * PuzzleFormat text.  Compressed blocks are deflated, each on its own, so one block
+ * at a time is ever held in memory.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public final class PuzzleArchive {
+
+  // length of the contents of a block before compression, give or take a puzzle.
+  public static final int BLOCK_SIZE = 1 << 16;
+
+  private static final byte[] MAGIC = {'T','C','A','1'};
+  private static final int COMPRESSED = 1;
+
+  // longest puzzle (and block) accepted when reading.
+  private static final int MAX_LENGTH = 1 << 26;
+
+  private PuzzleArchive() {
+
+  }
+
+  /**
+   * Writes puzzles to an archive.
+   */
+  public static final class Writer implements Closeable {
+
+    private final DataOutputStream out;
+    private final Deflater deflater; // null if blocks are stored as they are
+    private final StringBuilder line = new StringBuilder(512);
+
+    private byte[] block = new byte[BLOCK_SIZE + 1024];
+    private byte[] packed = new byte[0];
+    private int length;
+    private int records;
+    private long total;
+
+    /**
+     * Constructor starts an archive on the given stream.
+     *
+     * @param stream where the archive is written
+     * @param compress true if blocks are deflated
+     * @throws IOException If stream cannot be written to.
+     */
+    public Writer(OutputStream stream, boolean compress) throws IOException {
+
+      out = new DataOutputStream(new BufferedOutputStream(stream,BLOCK_SIZE));
+      deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+
+      out.write(MAGIC);
+      out.writeByte(compress ? COMPRESSED : 0);
+
+    }
+
+    /**
+     * Writes the puzzle of a game.
+     *
+     * @param game the game whose puzzle is written
+     * @throws IOException If the archive cannot be written to.
+     * @throws IllegalStateException If the game is empty.
+     */
+    public void write(Trichromino game) throws IOException {
+
+      write(game.snapshot());
+
+    }
+
+    /**
+     * Writes the puzzle of a state.
+     *
+     * @param state the state whose puzzle is written
+     * @throws IOException If the archive cannot be written to.
+     * @throws IllegalStateException If the state is of an empty game.
+     */
+    public void write(GameState state) throws IOException {
+
+      line.setLength(0);
+      PuzzleFormat.write(state,line);
+
+      int n = line.length();
+      if (length + n + 5 > block.length) block = Arrays.copyOf(block,Math.max(2*block.length,length + n + 5));
+
+      for (int v = n; ; v >>>= 7) {
+
+        if (v < 0x80) {
+          block[length++] = (byte) v;
+          break;
+        }
+
+        block[length++] = (byte) (v | 0x80);
+
+      }
+
+      for (int i = 0; i < n; i++) {
+        block[length++] = (byte) line.charAt(i);
+      }
+
+      records++;
+      total++;
+
+      if (length >= BLOCK_SIZE) flushBlock();
+
+    }
+
+    /**
+     * Returns the number of puzzles written.
+     *
+     * @return the number of puzzles in the archive so far.
+     */
+    public long count() {
+
+      return total;
+
+    }
+
+    /**
+     * Writes the buffered puzzles as one block.
+     */
+    private void flushBlock() throws IOException {
+
+      if (records == 0) return;
+
+      out.writeInt(records);
+      out.writeInt(length);
+
+      if (deflater == null) {
+
+        out.writeInt(length);
+        out.write(block,0,length);
+
+      } else {
+
+        if (packed.length < length + 64) packed = new byte[length + length/8 + 64];
+
+        deflater.reset();
+        deflater.setInput(block,0,length);
+        deflater.finish();
+
+        int size = 0;
+        while (!deflater.finished()) {
+          if (size == packed.length) packed = Arrays.copyOf(packed,2*packed.length);
+          size += deflater.deflate(packed,size,packed.length - size);
+        }
+
+        out.writeInt(size);
+        out.write(packed,0,size);
+
+      }
+
+      length = 0;
+      records = 0;
+
+    }
+
+    /**
+     * Writes the last block and the end of the archive, and closes the stream.
+     *
+     * @throws IOException If the archive cannot be written to.
+     */
+    public void close() throws IOException {
+
+      try {
+
+        flushBlock();
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt(0);
+
+      } finally {
+
+        out.close();
+        if (deflater != null) deflater.end();
+
+      }
+
+    }
+
+  }
+
+  /**
+   * Reads puzzles from an archive.
+   */
+  public static final class Reader implements Closeable {
+
+    private final DataInputStream in;
+    private final Inflater inflater; // null if blocks are stored as they are
+
+    private byte[] block = new byte[BLOCK_SIZE + 1024];
+    private byte[] packed = new byte[0];
+    private ByteBuffer view = ByteBuffer.wrap(block);
+    private int records; // puzzles left in the current block
+    private boolean ended;
+
+    /**
+     * Constructor reads the start of an archive from the given stream.
+     *
+     * @param stream where the archive is read from
+     * @throws IOException If stream cannot be read or does not hold an archive.
+     */
+    public Reader(InputStream stream) throws IOException {
+
+      in = new DataInputStream(new BufferedInputStream(stream,BLOCK_SIZE));
+
+      byte[] magic = new byte[MAGIC.length];
+      in.readFully(magic);
+      if (!Arrays.equals(magic,MAGIC)) throw new IOException("Reader: not a puzzle archive");
+
+      inflater = ((in.readByte() & COMPRESSED) != 0) ? new Inflater() : null;
+
+    }
+
+    /**
+     * Reads the next puzzle.
+     *
+     * @return The starting state of the next puzzle, or null at the end of the archive.
+     * @throws IOException If the archive cannot be read or is damaged.
+     */
+    public GameState next() throws IOException {
+
+      while (records == 0) {
+        if (ended || !nextBlock()) return null;
+      }
+
+      int n = 0;
+      for (int shift = 0; ; shift += 7) {
+
+        if (shift > 28 || !view.hasRemaining()) throw new IOException("next: damaged puzzle length");
+        int b = view.get();
+        n |= (b & 0x7F) << shift;
+        if (b >= 0) break;
+
+      }
+
+      // the fifth byte may carry bits past the sign bit.
+      if (n < 0) throw new IOException("next: damaged puzzle length");
+      if (n > view.remaining()) throw new IOException("next: puzzle longer than its block");
+
+      int end = view.position() + n;
+      int limit = view.limit();
+      view.limit(end);
+
+      try {
+        return PuzzleFormat.parse(view);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("next: " + e.getMessage());
+      } finally {
+        view.limit(limit);
+        view.position(end);
+        records--;
+      }
+
+    }
+
+    /**
+     * Reads (and inflates) the next block.
+     *
+     * @return false if the archive has ended.
+     */
+    private boolean nextBlock() throws IOException {
+
+      int count;
+      int length;
+      int size;
+
+      try {
+        count = in.readInt();
+        length = in.readInt();
+        size = in.readInt();
+      } catch (EOFException e) {
+        throw new IOException("next: archive ends without its last block");
+      }
+
+      if (count == 0) {
+        ended = true;
+        return false;
+      }
+
+      if (count < 0 || length < 0 || size < 0 || length > MAX_LENGTH || size > MAX_LENGTH)
+        throw new IOException("next: damaged block");
+
+      if (block.length < length) block = new byte[length];
+
+      if (inflater == null) {
+
+        if (size != length) throw new IOException("next: damaged block");
+        in.readFully(block,0,length);
+
+      } else {
+
+        if (packed.length < size) packed = new byte[size];
+        in.readFully(packed,0,size);
+
+        inflater.reset();
+        inflater.setInput(packed,0,size);
+
+        try {
+          if (inflater.inflate(block,0,length) != length || !inflater.finished())
+            throw new IOException("next: damaged block");
+        } catch (DataFormatException e) {
+          throw new IOException("next: " + e.getMessage());
+        }
+
+      }
+
+      view = ByteBuffer.wrap(block,0,length);
+      records = count;
+
+      return true;
+
+    }
+
+    /**
+     * Closes the stream of this archive.
+     *
+     * @throws IOException If the stream cannot be closed.
+     */
+    public void close() throws IOException {
+
+      in.close();
+      if (inflater != null) inflater.end();
+
+    }
+
+  }
+
+  /**
+   * Packs saved games into an archive (pack archive file.tcm...), unpacks an archive
+   * into saved games (unpack archive directory) or, with no arguments, writes and
+   * reads back a large archive and reports the rates.
+   */
+  public static void main(String[]args) throws Exception {
+
+    if (args.length > 1 && args[0].equals("pack")) {
+
+      Writer writer = new Writer(new FileOutputStream(args[1]),true);
+      for (int i = 2; i < args.length; i++) {
+        writer.write(Trichromino.fromFile(args[i].replaceAll("\\.tcm$","")));
+      }
+      writer.close();
+
+      System.out.println(writer.count() + " puzzles packed");
+      return;
+
+    }
+
+    if (args.length > 2 && args[0].equals("unpack")) {
+
+      Reader reader = new Reader(new FileInputStream(args[1]));
+      int n = 0;
+      for (GameState state = reader.next(); state != null; state = reader.next()) {
+        new Trichromino(state).save(new File(args[2],"puzzle-" + (++n)).getPath());
+      }
+      reader.close();
+
+      System.out.println(n + " puzzles unpacked");
+      return;
+
+    }
+
+    GameState[] states = new GameState[200];
+    for (int i = 0; i < states.length; i++) {
+      Trichromino game = new Trichromino();
+      game.generateSeeded(i%2,Trichromino.EASY_SIZE,i);
+      states[i] = game.snapshot();
+    }
+
+    int count = 500000;
+    File file = File.createTempFile("puzzles",".tca");
+    file.deleteOnExit();
+
+    for (int pass = 0; pass < 2; pass++) {
+
+      boolean compress = (pass == 1);
+
+      long start = System.nanoTime();
+      Writer writer = new Writer(new FileOutputStream(file),compress);
+      for (int i = 0; i < count; i++) {
+        writer.write(states[i%states.length]);
+      }
+      writer.close();
+      long written = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      Reader reader = new Reader(new FileInputStream(file));
+      int read = 0;
+      int same = 0;
+      for (GameState state = reader.next(); state != null; state = reader.next()) {
+        if (state.getHash() == states[read%states.length].getHash()) same++;
+        read++;
+      }
+      reader.close();
+      long elapsed = System.nanoTime() - start;
+
+      System.out.println((compress ? "deflated: " : "stored: ") + file.length()/1024 + "KB, written at "
+                           + count*1000000000L/written + " puzzles/s, read at " + read*1000000000L/elapsed
+                           + " puzzles/s, " + same + " of " + count + " unchanged");
+
+    }
+
+    // one stored block holding a puzzle whose length overflows to -1.
+    byte[] damaged = {'T','C','A','1',0, 0,0,0,1, 0,0,0,5, 0,0,0,5, -1,-1,-1,-1,0x0F, 0,0,0,0, 0,0,0,0, 0,0,0,0};
+
+    try {
+      new Reader(new ByteArrayInputStream(damaged)).next();
+      System.out.println("damaged length read");
+    } catch (IOException e) {
+      System.out.println("damaged length rejected: " + e.getMessage());
+    }
+
+  }
+
+}
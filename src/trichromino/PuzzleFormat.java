@@ -0,0 +1,572 @@
+/**
+ * PuzzleFormat reads and writes puzzles (the board, the solution and the pieces of
+ * a game, without its play) as one line of text:
+ * <pre>
+ *   (height)x(width) (traps) (solution) (piece),(piece),...
+ * </pre>
+ * The traps and the solution are written row by row, rows separated by '/'.  Each
+ * row is run-length encoded: a run is an optional count (omitted for 1) followed by
+ * a square, one of '.' (empty), 't' (trap), 'w' (white), 'b' (black) or 'g' (gray).
+ * A piece is its shade ('w' or 'b'), its height and width and, after ':', the mask
+ * of its squares in hexadecimal: one bit per square, row by row, first square in the
+ * highest bit, padded with zeros to a whole digit.  For example
+ * <pre>
+ *   3x3 3./.t./3. 3w/wtw/3b b2x2:e,w1x3:e
+ * </pre>
+ * Puzzles are parsed straight from a CharSequence or from the ASCII bytes of a
+ * ByteBuffer, without copying them into strings.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public final class PuzzleFormat {
+
+  private static final int EMPTY = 0;
+  private static final int WHITE = 1;
+  private static final int BLACK = 3;
+  private static final int GRAY = 5;
+  private static final int TRAP = 9;
+
+  private static final String HEX = "0123456789abcdef";
+
+  // largest height and width of a board read; pieces are no larger than their board.
+  static final int MAX_SIDE = 2048;
+
+  private PuzzleFormat() {
+
+  }
+
+  /**
+   * Writes the puzzle of a game (its traps, solution and pieces).
+   *
+   * @param game the game whose puzzle is written
+   * @param out where the puzzle is written
+   * @throws IOException If out cannot be written to.
+   * @throws IllegalStateException If the game is empty.
+   */
+  public static void write(Trichromino game, Appendable out) throws IOException {
+
+    write(game.snapshot(),out);
+
+  }
+
+  /**
+   * Writes the puzzle of a state (its traps, solution and pieces).
+   *
+   * @param state the state whose puzzle is written
+   * @param out where the puzzle is written
+   * @throws IOException If out cannot be written to.
+   * @throws IllegalStateException If the state is of an empty game.
+   */
+  public static void write(GameState state, Appendable out) throws IOException {
+
+    if (state.isEmpty()) throw new IllegalStateException("write: Game is current empty");
+
+    int height = state.getHeight();
+    int width = state.getWidth();
+
+    out.append(Integer.toString(height)).append('x').append(Integer.toString(width)).append(' ');
+
+    for (int i = 0; i < height; i++) {
+
+      if (i > 0) out.append('/');
+
+      int j = 0;
+      while (j < width) {
+
+        boolean trap = state.get(i,j) >= TRAP;
+        int run = 1;
+        while (j + run < width && (state.get(i,j + run) >= TRAP) == trap) {
+          run++;
+        }
+
+        writeRun(run,trap ? 't' : '.',out);
+        j += run;
+
+      }
+
+    }
+
+    out.append(' ');
+
+    int[][] solution = state.solution();
+
+    for (int i = 0; i < height; i++) {
+
+      if (i > 0) out.append('/');
+
+      int j = 0;
+      while (j < width) {
+
+        int run = 1;
+        while (j + run < width && solution[i][j + run] == solution[i][j]) {
+          run++;
+        }
+
+        writeRun(run,square(solution[i][j]),out);
+        j += run;
+
+      }
+
+    }
+
+    out.append(' ');
+
+    for (int p = 0; p < state.numPieces(); p++) {
+
+      if (p > 0) out.append(',');
+
+      Piece piece = state.getPiece(p);
+      int[][] matrix = piece.getMatrix();
+
+      out.append(piece.getShade() == BLACK ? 'b' : 'w').append(Integer.toString(matrix.length)).append('x')
+        .append(Integer.toString(matrix[0].length)).append(':');
+
+      int nibble = 0;
+      int bits = 0;
+
+      for (int[] row : matrix) {
+        for (int square : row) {
+
+          nibble = nibble << 1 | ((square != EMPTY) ? 1 : 0);
+
+          if (++bits == 4) {
+            out.append(HEX.charAt(nibble));
+            nibble = bits = 0;
+          }
+
+        }
+      }
+
+      if (bits > 0) out.append(HEX.charAt(nibble << (4 - bits)));
+
+    }
+
+  }
+
+  /**
+   * Returns the puzzle of a game as one line of text.
+   *
+   * @param game the game whose puzzle is written
+   * @return the puzzle of game.
+   * @throws IllegalStateException If the game is empty.
+   */
+  public static String toString(Trichromino game) {
+
+    StringBuilder text = new StringBuilder(256);
+
+    try {
+      write(game,text);
+    } catch (IOException e) {
+      throw new AssertionError(e); // StringBuilder does not throw
+    }
+
+    return text.toString();
+
+  }
+
+  private static void writeRun(int run, char square, Appendable out) throws IOException {
+
+    if (run > 1) out.append(Integer.toString(run));
+    out.append(square);
+
+  }
+
+  /**
+   * Returns the character of a shade of the solution.
+   *
+   * @param shade the shade of a square
+   * @return the character standing for shade.
+   * @throws IllegalStateException If shade cannot appear in a solution.
+   */
+  private static char square(int shade) {
+
+    switch (shade) {
+
+      case EMPTY : return '.';
+      case WHITE : return 'w';
+      case BLACK : return 'b';
+      case GRAY : return 'g';
+      case TRAP : return 't';
+      default : throw new IllegalStateException("write: " + shade + " is not a shade of a solution.");
+
+    }
+
+  }
+
+  /**
+   * Parses a puzzle written by write.
+   *
+   * @param text the text of the puzzle
+   * @return the starting state of the puzzle.
+   * @throws IllegalArgumentException If text is not a valid puzzle.
+   */
+  public static GameState parse(CharSequence text) {
+
+    return new Parser(text,null,0,text.length()).puzzle();
+
+  }
+
+  /**
+   * Parses the puzzle in the remaining ASCII bytes of a buffer (up to the end of the
+   * first line), and moves the position of the buffer past that line.
+   *
+   * @param buffer the bytes of the puzzle
+   * @return the starting state of the puzzle.
+   * @throws IllegalArgumentException If the line is not a valid puzzle.
+   */
+  public static GameState parse(ByteBuffer buffer) {
+
+    int start = buffer.position();
+    int end = start;
+    while (end < buffer.limit() && buffer.get(end) != '\n') {
+      end++;
+    }
+
+    if (end > start && buffer.get(end - 1) == '\r') end--;
+
+    // the bytes of heap buffers are read straight from their array
+    Parser parser = buffer.hasArray()
+      ? new Parser(null,buffer.array(),buffer.arrayOffset() + start,buffer.arrayOffset() + end)
+      : new Parser(new Ascii(buffer),null,start,end);
+    GameState state = parser.puzzle();
+
+    if (end < buffer.limit() && buffer.get(end) == '\r') end++;
+    buffer.position(Math.min(end + 1,buffer.limit()));
+
+    return state;
+
+  }
+
+  /**
+   * A view of the bytes of a buffer as ASCII characters (absolute indices).
+   */
+  private static final class Ascii implements CharSequence {
+
+    private final ByteBuffer buffer;
+
+    Ascii(ByteBuffer buffer) {
+
+      this.buffer = buffer;
+
+    }
+
+    public char charAt(int index) {
+
+      return (char) (buffer.get(index) & 0xFF);
+
+    }
+
+    public int length() {
+
+      return buffer.limit();
+
+    }
+
+    public CharSequence subSequence(int start, int end) {
+
+      StringBuilder copy = new StringBuilder(end - start);
+      for (int i = start; i < end; i++) {
+        copy.append(charAt(i));
+      }
+
+      return copy;
+
+    }
+
+    public String toString() {
+
+      return subSequence(buffer.position(),buffer.limit()).toString();
+
+    }
+
+  }
+
+  /**
+   * Reads one puzzle from a range of characters.
+   */
+  private static final class Parser {
+
+    private final CharSequence text; // null when reading bytes
+    private final byte[] bytes;
+    private final int end;
+    private int at;
+
+    Parser(CharSequence text, byte[] bytes, int start, int end) {
+
+      this.text = text;
+      this.bytes = bytes;
+      this.end = end;
+      at = start;
+
+    }
+
+    private char charAt(int index) {
+
+      return (bytes != null) ? (char) (bytes[index] & 0xFF) : text.charAt(index);
+
+    }
+
+    GameState puzzle() {
+
+      int height = number();
+      expect('x');
+      int width = number();
+      expect(' ');
+
+      if (height <= 0 || width <= 0) throw error("empty board");
+      if (height > MAX_SIDE || width > MAX_SIDE) throw error("board larger than " + MAX_SIDE + "x" + MAX_SIDE);
+
+      byte[][] rows = new byte[height][width];
+      int[][] solution = new int[height][width];
+
+      for (int i = 0; i < height; i++) {
+
+        if (i > 0) expect('/');
+
+        int j = 0;
+        while (j < width) {
+
+          int run = run();
+          char square = next();
+          if (square != '.' && square != 't') throw error("'" + square + "' is not a trap or '.'");
+          if (j + run > width) throw error("row " + i + " is too long");
+
+          if (square == 't') {
+            for (int k = j; k < j + run; k++) {
+              rows[i][k] = TRAP;
+            }
+          }
+
+          j += run;
+
+        }
+
+      }
+
+      expect(' ');
+
+      for (int i = 0; i < height; i++) {
+
+        if (i > 0) expect('/');
+
+        int j = 0;
+        while (j < width) {
+
+          int run = run();
+          int shade = shade(next());
+          if (j + run > width) throw error("row " + i + " is too long");
+
+          // traps show as 't' unless covered, and only traps do.
+          for (int k = j; k < j + run; k++) {
+            if ((rows[i][k] == TRAP) ? shade == EMPTY : shade == TRAP)
+              throw error("square " + i + "," + k + " of the solution does not match the traps");
+          }
+
+          for (int k = j; k < j + run; k++) {
+            solution[i][k] = shade;
+          }
+
+          j += run;
+
+        }
+
+      }
+
+      expect(' ');
+
+      int count = 1;
+      for (int i = at; i < end; i++) {
+        if (charAt(i) == ',') count++;
+      }
+
+      Piece[] pieces = new Piece[count];
+
+      for (int p = 0; p < count; p++) {
+
+        if (p > 0) expect(',');
+        pieces[p] = piece(height,width);
+
+      }
+
+      if (at != end) throw error("unexpected '" + charAt(at) + "'");
+
+      return GameState.puzzle(rows,solution,pieces);
+
+    }
+
+    private Piece piece(int height, int width) {
+
+      char shade = next();
+      if (shade != 'w' && shade != 'b') throw error("'" + shade + "' is not the shade of a piece");
+
+      int rows = number();
+      expect('x');
+      int cols = number();
+      expect(':');
+
+      if (rows <= 0 || cols <= 0) throw error("empty piece");
+      if (rows > height || cols > width) throw error("piece larger than the board");
+
+      Piece piece = new Piece(cols,rows,(shade == 'b') ? BLACK : WHITE);
+      int nibble = 0;
+      int bits = 0;
+
+      for (int i = 0; i < rows; i++) {
+        for (int j = 0; j < cols; j++) {
+
+          if (bits == 0) {
+            nibble = Character.digit(next(),16);
+            if (nibble < 0) throw error("mask is not hexadecimal");
+            bits = 4;
+          }
+
+          if ((nibble >> --bits & 1) != 0) piece.addSquare(i,j);
+
+        }
+      }
+
+      if (piece.isEmpty()) throw error("piece without squares");
+
+      return piece;
+
+    }
+
+    private int shade(char square) {
+
+      switch (square) {
+
+        case '.' : return EMPTY;
+        case 'w' : return WHITE;
+        case 'b' : return BLACK;
+        case 'g' : return GRAY;
+        case 't' : return TRAP;
+        default : throw error("'" + square + "' is not a shade");
+
+      }
+
+    }
+
+    private int run() {
+
+      return (at < end && charAt(at) >= '0' && charAt(at) <= '9') ? number() : 1;
+
+    }
+
+    private int number() {
+
+      int n = 0;
+      int start = at;
+
+      while (at < end && charAt(at) >= '0' && charAt(at) <= '9') {
+
+        n = 10*n + (charAt(at++) - '0');
+        if (n > 0xFFFF) throw error("number too large");
+
+      }
+
+      if (at == start) throw error("number expected");
+
+      return n;
+
+    }
+
+    private char next() {
+
+      if (at >= end) throw error("unexpected end");
+
+      return charAt(at++);
+
+    }
+
+    private void expect(char c) {
+
+      if (next() != c) throw error("'" + c + "' expected");
+
+    }
+
+    private IllegalArgumentException error(String message) {
+
+      return new IllegalArgumentException("parse: " + message + " at " + at);
+
+    }
+
+  }
+
+  /**
+   * Writes generated puzzles, parses them back (from strings and from a buffer),
+   * checks that they are unchanged and reports the parsing rate.
+   */
+  public static void main(String[]args) throws Exception {
+
+    int count = 2000;
+    StringBuilder all = new StringBuilder();
+    String[] lines = new String[count];
+    GameState[] states = new GameState[count];
+
+    for (int i = 0; i < count; i++) {
+
+      Trichromino game = new Trichromino();
+      game.generateSeeded(i%2,Trichromino.EASY_SIZE,i);
+      states[i] = game.snapshot();
+      lines[i] = toString(game);
+      all.append(lines[i]).append('\n');
+
+    }
+
+    System.out.println(lines[0]);
+    System.out.println(lines[1]);
+
+    int same = 0;
+    ByteBuffer buffer = ByteBuffer.wrap(all.toString().getBytes("US-ASCII"));
+
+    for (int i = 0; i < count; i++) {
+
+      GameState parsed = parse(lines[i]);
+      GameState fromBytes = parse(buffer);
+      StringBuilder again = new StringBuilder();
+      write(fromBytes,again);
+
+      if (parsed.getHash() == states[i].getHash() && again.toString().equals(lines[i])
+            && new Trichromino(parsed).getSolution()[3][4] == states[i].getSolution()[3][4]) same++;
+
+    }
+
+    System.out.println(same + " of " + count + " puzzles read back unchanged");
+
+    String[] damaged = {"65535x65535 65535. 65535. w1x1:8", "3x3 3./.t./3. 3w/w.w/3b b2x2:e",
+                        "3x3 3./3./3. 3w/wtw/3b b2x2:e", "3x3 3./.t./3. 3w/wtw/3b b4x1:f"};
+
+    for (String line : damaged) {
+
+      try {
+        parse(line);
+        System.out.println("read: " + line);
+      } catch (IllegalArgumentException e) {
+        System.out.println("rejected: " + e.getMessage());
+      }
+
+    }
+
+    for (int round = 0; round < 5; round++) {
+
+      buffer.rewind();
+      long start = System.nanoTime();
+
+      for (int i = 0; i < count; i++) {
+        parse(buffer);
+      }
+
+      long elapsed = System.nanoTime() - start;
+      System.out.println(count*1000000000L/elapsed + " puzzles parsed per second");
+
+    }
+
+  }
+
+}
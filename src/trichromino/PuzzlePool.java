@@ -0,0 +1,322 @@
+/**
+ * PuzzlePool keeps generated games of one mode and size ready to be played, so a
+ * new game is served at once instead of after a full run of the generator.
+ * <p>
+ * Whenever a game is taken, background threads (shared by every pool) generate
+ * games until the pool is back to its high-water mark.  If the pool is empty the
+ * game is generated on the calling thread.  The number of hits, misses and the time
+ * taken by refills are counted.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PuzzlePool {
+
+  public static final int DEFAULT_HIGH_WATER = 4;
+
+  private final int mode;
+  private final int size;
+  private final int highWater;
+
+  private final ArrayBlockingQueue<Trichromino> ready;
+  private final AtomicInteger pending; // games being generated for the pool
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong refills = new AtomicLong();
+  private final AtomicLong refillTime = new AtomicLong();
+  private final AtomicLong maxRefillTime = new AtomicLong();
+
+  private final Runnable refill;
+
+  // the default pools, keyed by mode and size (see key).
+  private static final ConcurrentHashMap<Long,PuzzlePool> POOLS = new ConcurrentHashMap<Long,PuzzlePool>();
+
+  /**
+   * Constructor takes the mode and size of the games and the number of games kept
+   * ready, and starts filling the pool.
+   *
+   * @param mode Trichromino.BASIC or Trichromino.CHALLENGE
+   * @param size the width and height of the games
+   * @param highWater the number of games kept ready
+   * @throws IllegalArgumentException If mode or size is not valid or highWater is not positive.
+   */
+  public PuzzlePool(int mode, int size, int highWater) {
+
+    if (mode != Trichromino.BASIC && mode != Trichromino.CHALLENGE)
+      throw new IllegalArgumentException("PuzzlePool: " + mode + " is not a valid mode.");
+    if (size < Trichromino.MIN_SIZE) throw new IllegalArgumentException("PuzzlePool: " + size + " is not a valid size.");
+    if (highWater <= 0) throw new IllegalArgumentException("PuzzlePool: high-water mark must be positive");
+
+    this.mode = mode;
+    this.size = size;
+    this.highWater = highWater;
+
+    ready = new ArrayBlockingQueue<Trichromino>(highWater);
+    pending = new AtomicInteger();
+
+    refill = new Runnable() {
+
+      public void run() {
+
+        try {
+
+          long start = System.nanoTime();
+          Trichromino game = generate();
+          long elapsed = System.nanoTime() - start;
+
+          refills.incrementAndGet();
+          refillTime.addAndGet(elapsed);
+
+          long max = maxRefillTime.get();
+          while (elapsed > max && !maxRefillTime.compareAndSet(max,elapsed)) {
+            max = maxRefillTime.get();
+          }
+
+          ready.offer(game);
+
+        } finally {
+          pending.decrementAndGet();
+        }
+
+        // a game taken between the offer and the decrement saw this game both ready
+        // and pending, and may have left the pool short.
+        fill();
+
+      }
+
+    };
+
+    fill();
+
+  }
+
+  /**
+   * Returns the pool of the given mode and size shared by the whole program,
+   * creating it (with DEFAULT_HIGH_WATER games) if needed.
+   *
+   * @param mode Trichromino.BASIC or Trichromino.CHALLENGE
+   * @param size the width and height of the games
+   * @return The shared pool of such games.
+   * @throws IllegalArgumentException If mode or size is not valid.
+   */
+  public static PuzzlePool of(int mode, int size) {
+
+    Long key = ((long) mode << 32) | size;
+    PuzzlePool pool = POOLS.get(key);
+
+    if (pool == null) {
+      PuzzlePool created = new PuzzlePool(mode,size,DEFAULT_HIGH_WATER);
+      pool = POOLS.putIfAbsent(key,created);
+      if (pool == null) pool = created;
+    }
+
+    return pool;
+
+  }
+
+  /**
+   * Returns a new game, taken from the pool if one is ready and generated otherwise.
+   * Either way the pool is then refilled in the background.
+   *
+   * @return A newly generated game, never played.
+   */
+  public Trichromino take() {
+
+    Trichromino game = ready.poll();
+
+    if (game != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+      game = generate();
+    }
+
+    fill();
+
+    return game;
+
+  }
+
+  /**
+   * Schedules enough refills to bring the pool back to its high-water mark.
+   */
+  private void fill() {
+
+    while (true) {
+
+      int queued = pending.get();
+      if (ready.size() + queued >= highWater) return;
+
+      if (pending.compareAndSet(queued,queued + 1)) Refill.EXECUTOR.execute(refill);
+
+    }
+
+  }
+
+  /**
+   * Generates a game of the mode and size of this pool.
+   *
+   * @return The generated game.
+   */
+  private Trichromino generate() {
+
+    Trichromino game = new Trichromino();
+    game.generate(mode,size);
+
+    return game;
+
+  }
+
+  /**
+   * Returns the number of games ready to be taken.
+   *
+   * @return the number of games in the pool.
+   */
+  public int available() {
+
+    return ready.size();
+
+  }
+
+  /**
+   * Returns the number of games taken from the pool.
+   *
+   * @return the number of calls to take served from the pool.
+   */
+  public long getHits() {
+
+    return hits.get();
+
+  }
+
+  /**
+   * Returns the number of games generated on demand because the pool was empty.
+   *
+   * @return the number of calls to take not served from the pool.
+   */
+  public long getMisses() {
+
+    return misses.get();
+
+  }
+
+  /**
+   * Returns the number of games generated in the background.
+   *
+   * @return the number of refills completed.
+   */
+  public long getRefills() {
+
+    return refills.get();
+
+  }
+
+  /**
+   * Returns the mean time taken to generate a game in the background.
+   *
+   * @return the mean refill time in nanoseconds (0 if there has been none).
+   */
+  public long getMeanRefillTime() {
+
+    long n = refills.get();
+
+    return (n == 0) ? 0 : refillTime.get()/n;
+
+  }
+
+  /**
+   * Returns the longest time taken to generate a game in the background.
+   *
+   * @return the longest refill time in nanoseconds.
+   */
+  public long getMaxRefillTime() {
+
+    return maxRefillTime.get();
+
+  }
+
+  /**
+   * Returns a summary of this pool and its counts.
+   *
+   * @return the mode, size and counts of this pool.
+   */
+  public String toString() {
+
+    return "PuzzlePool[mode " + mode + ", size " + size + ", " + available() + "/" + highWater + " ready, "
+      + getHits() + " hits, " + getMisses() + " misses, " + getRefills() + " refills, mean "
+      + getMeanRefillTime()/1000 + "us, max " + getMaxRefillTime()/1000 + "us]";
+
+  }
+
+  /**
+   * Holds the threads refilling the pools, started with the first pool.
+   */
+  private static class Refill {
+
+    private static final ExecutorService EXECUTOR =
+      Executors.newFixedThreadPool(Math.max(1,Runtime.getRuntime().availableProcessors() - 1),new ThreadFactory() {
+
+      private final AtomicInteger count = new AtomicInteger();
+
+      public Thread newThread(Runnable r) {
+
+        Thread thread = new Thread(r,"trichromino-puzzles-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+
+      }
+
+    });
+
+  }
+
+  /**
+   * Takes games from a pool, first faster than it is refilled and then slower, and
+   * reports the time taken and the counts of the pool.
+   */
+  public static void main(String[]args) throws Exception {
+
+    int size = (args.length > 0) ? Integer.parseInt(args[0]) : Trichromino.EASY_SIZE;
+
+    long start = System.nanoTime();
+    Trichromino direct = new Trichromino();
+    for (int i = 0; i < 20; i++) {
+      direct.generate(Trichromino.CHALLENGE,size);
+    }
+    System.out.println("generated: " + (System.nanoTime() - start)/20000 + "us per game");
+
+    PuzzlePool pool = new PuzzlePool(Trichromino.CHALLENGE,size,8);
+    Thread.sleep(500);
+
+    for (int round = 0; round < 2; round++) {
+
+      start = System.nanoTime();
+      for (int i = 0; i < 16; i++) {
+        pool.take();
+      }
+      System.out.println("taken: " + (System.nanoTime() - start)/16000 + "us per game");
+      System.out.println(pool);
+
+      Thread.sleep(500);
+
+    }
+
+    for (int i = Trichromino.MIN_SIZE; i <= 16; i += 2) {
+      System.out.println(PuzzlePool.of(Trichromino.BASIC,i).take().getCurrentGame().getWidth());
+    }
+
+  }
+
+}
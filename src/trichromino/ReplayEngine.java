@@ -0,0 +1,232 @@
+/**
+ * ReplayEngine replays a GameRecording, reconstructing the game after any number
+ * of recorded commands.
+ * <p>
+ * A copy of the game (a keyframe) is kept every few commands, so seeking to a
+ * command only replays the commands since the closest keyframe before it, rather
+ * than every command since the start of the recording.  Commands are replayed in
+ * batches (see Trichromino.executeAll).
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.util.Random;
+
+public class ReplayEngine {
+
+  public static final int DEFAULT_INTERVAL = 256;
+
+  private GameRecording recording;
+  private int interval;
+
+  // state after every interval-th command, with its time and delta offset.
+  private Trichromino[] keyframes;
+  private long[] keyTimes;
+  private int[] keyOffsets;
+
+  // the game after position commands.
+  private Trichromino game;
+  private int position;
+  private long time;
+  private int offset;
+
+  /**
+   * Constructor takes the recording to replay, keeping a keyframe every
+   * DEFAULT_INTERVAL commands.
+   *
+   * @param r the recording being replayed
+   */
+  public ReplayEngine(GameRecording r) {
+
+    this(r,DEFAULT_INTERVAL);
+
+  }
+
+  /**
+   * Constructor takes the recording to replay and the number of commands between
+   * keyframes.  The recording is replayed once in full to build the keyframes.
+   *
+   * @param r the recording being replayed
+   * @param every the number of commands between two keyframes
+   * @throws IllegalArgumentException If every is not positive.
+   */
+  public ReplayEngine(GameRecording r, int every) {
+
+    if (every <= 0) throw new IllegalArgumentException("ReplayEngine: interval must be positive");
+
+    recording = r;
+    interval = every;
+
+    int frames = r.size()/interval + 1;
+    keyframes = new Trichromino[frames];
+    keyTimes = new long[frames];
+    keyOffsets = new int[frames];
+
+    game = r.getStart();
+
+    for (int i = 0; i < frames; i++) {
+
+      advance(i*interval);
+      keyframes[i] = game.copy();
+      keyTimes[i] = time;
+      keyOffsets[i] = offset;
+
+    }
+
+  }
+
+  /**
+   * Returns the number of commands in the recording.
+   *
+   * @return the number of commands that can be replayed.
+   */
+  public int length() {
+
+    return recording.size();
+
+  }
+
+  /**
+   * Returns the number of commands replayed so far.
+   *
+   * @return the position of this replay.
+   */
+  public int getPosition() {
+
+    return position;
+
+  }
+
+  /**
+   * Returns the time into the recording at the current position.
+   *
+   * @return the time (in milliseconds) between the start of the recording and the
+   *         last replayed command.
+   */
+  public long getTime() {
+
+    return time;
+
+  }
+
+  /**
+   * Returns the game at the current position.  The game belongs to this replay and
+   * changes as the replay moves; use Trichromino.copy to keep it.
+   *
+   * @return the game after the replayed commands.
+   */
+  public Trichromino getGame() {
+
+    return game;
+
+  }
+
+  /**
+   * Replays the given number of commands from the current position (or up to the
+   * end of the recording).
+   *
+   * @param moves the number of commands to replay
+   * @return the new position of this replay.
+   */
+  public int fastForward(int moves) {
+
+    seek((int) Math.min((long) position + Math.max(moves,0),length()));
+
+    return position;
+
+  }
+
+  /**
+   * Moves this replay to the state after the given number of commands, starting
+   * from the closest keyframe before it unless the current position is closer.
+   *
+   * @param move the number of commands to have been replayed
+   * @throws IndexOutOfBoundsException If move is negative or beyond the recording.
+   */
+  public void seek(int move) {
+
+    if (move < 0 || move > length()) throw new IndexOutOfBoundsException("seek: " + move + " outside " + length());
+
+    int frame = move/interval;
+
+    if (move < position || position < frame*interval) {
+
+      game = keyframes[frame].copy();
+      position = frame*interval;
+      time = keyTimes[frame];
+      offset = keyOffsets[frame];
+
+    }
+
+    advance(move);
+
+  }
+
+  /**
+   * Returns the grid of the game after the given number of commands.
+   *
+   * @param move the number of commands to have been replayed
+   * @return A copy of the grid after move commands.
+   * @throws IndexOutOfBoundsException If move is negative or beyond the recording.
+   */
+  public GameGrid gridAt(int move) {
+
+    seek(move);
+
+    return game.copy().getCurrentGame();
+
+  }
+
+  /**
+   * Replays commands from the current position up to the given position.
+   *
+   * @param move the position to reach (no less than the current position)
+   */
+  private void advance(int move) {
+
+    for (int i = position; i < move; i++) {
+
+      time += recording.deltaAt(offset);
+      offset = recording.nextDelta(offset);
+
+    }
+
+    game.executeAll(recording.commands(),position,move - position);
+    position = move;
+
+  }
+
+  /**
+   * Records a random session on a generated game and seeks around its replay.
+   */
+  public static void main(String[]args) {
+
+    Random random = new Random(1);
+
+    Trichromino game = new Trichromino();
+    game.generate(Trichromino.CHALLENGE);
+    GameRecording recording = game.startRecording();
+
+    for (int i = 0; i < 100000; i++) {
+      game.execute(random.nextInt(Trichromino.RIGHT + 1));
+    }
+
+    System.out.println(recording);
+
+    ReplayEngine replay = new ReplayEngine(recording);
+    replay.seek(replay.length());
+    System.out.println(replay.getGame().getCurrentGame().getHash() == game.getCurrentGame().getHash());
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 1000; i++) {
+      replay.seek(random.nextInt(replay.length() + 1));
+    }
+    System.out.println((System.nanoTime() - start)/1000 + "ns per seek");
+
+    System.out.println(replay.gridAt(12345));
+
+  }
+
+}
@@ -0,0 +1,251 @@
+/**
+ * SessionManager hosts any number of concurrent games, each a GameSession found by
+ * its id.
+ * <p>
+ * Sessions are kept in a concurrent map and share one pool of threads: a session
+ * only occupies a thread while it has commands to apply, so the number of sessions
+ * is limited by memory rather than by threads.  Sessions that go unused may be
+ * evicted with evictIdle.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SessionManager {
+
+  private final ConcurrentHashMap<Long,GameSession> sessions;
+  private final AtomicLong nextId;
+  private final ExecutorService executor;
+  private final boolean ownsExecutor;
+
+  /**
+   * Default constructor applies commands on a pool of one daemon thread per processor.
+   */
+  public SessionManager() {
+
+    this(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),new ThreadFactory() {
+
+      private final AtomicLong count = new AtomicLong();
+
+      public Thread newThread(Runnable r) {
+
+        Thread thread = new Thread(r,"trichromino-session-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+
+      }
+
+    }),true);
+
+  }
+
+  /**
+   * Constructor takes the executor on which the commands of all sessions are applied.
+   *
+   * @param executor the executor shared by the sessions
+   */
+  public SessionManager(ExecutorService executor) {
+
+    this(executor,false);
+
+  }
+
+  /**
+   * Constructor takes the executor and whether or not shutdown should stop it.
+   *
+   * @param executor the executor shared by the sessions
+   * @param owned true if the executor belongs to this manager
+   */
+  private SessionManager(ExecutorService executor, boolean owned) {
+
+    this.executor = executor;
+    ownsExecutor = owned;
+    sessions = new ConcurrentHashMap<Long,GameSession>();
+    nextId = new AtomicLong();
+
+  }
+
+  /**
+   * Creates a session starting from the given state.  As states never change, one
+   * state may start any number of sessions.
+   *
+   * @param start the starting state of the game
+   * @return The new session.
+   */
+  public GameSession create(GameState start) {
+
+    GameSession session = new GameSession(nextId.incrementAndGet(),start.withoutHistory(),executor);
+    sessions.put(session.getId(),session);
+
+    return session;
+
+  }
+
+  /**
+   * Creates a session playing a newly generated game of the given mode.
+   *
+   * @param mode Trichromino.BASIC or Trichromino.CHALLENGE
+   * @return The new session.
+   * @throws IllegalArgumentException If mode is not a valid mode.
+   */
+  public GameSession create(int mode) {
+
+    Trichromino game = new Trichromino();
+    game.generate(mode);
+
+    return create(game.snapshot());
+
+  }
+
+  /**
+   * Returns the session with the given id.
+   *
+   * @param id the id of the session
+   * @return The session, or null if there is no such session.
+   */
+  public GameSession get(long id) {
+
+    return sessions.get(id);
+
+  }
+
+  /**
+   * Removes the session with the given id.  Commands already queued are still applied.
+   *
+   * @param id the id of the session
+   * @return The removed session, or null if there was no such session.
+   */
+  public GameSession remove(long id) {
+
+    return sessions.remove(id);
+
+  }
+
+  /**
+   * Returns the number of sessions.
+   *
+   * @return the number of sessions hosted by this manager.
+   */
+  public int size() {
+
+    return sessions.size();
+
+  }
+
+  /**
+   * Removes every session that has received no command for the given time.
+   *
+   * @param idle the time (in milliseconds) after which a session is idle
+   * @return the number of sessions removed.
+   */
+  public int evictIdle(long idle) {
+
+    long cutoff = System.currentTimeMillis() - idle;
+    int removed = 0;
+
+    for (Iterator<GameSession> it = sessions.values().iterator(); it.hasNext();) {
+
+      if (it.next().getLastAccess() < cutoff) {
+        it.remove();
+        removed++;
+      }
+
+    }
+
+    return removed;
+
+  }
+
+  /**
+   * Stops the threads of this manager if it created them.
+   */
+  public void shutdown() {
+
+    if (ownsExecutor) executor.shutdown();
+
+  }
+
+  /**
+   * Sends random commands to a number of sessions from several threads and
+   * reports the average time from submission to completion.
+   */
+  public static void main(String[]args) throws Exception {
+
+    final int numSessions = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+    final int commands = 200000;
+    final int clients = 4;
+
+    final SessionManager manager = new SessionManager();
+
+    Trichromino game = new Trichromino();
+    game.generate(Trichromino.CHALLENGE);
+    GameState start = game.snapshot();
+
+    for (int i = 0; i < numSessions; i++) {
+      manager.create(start);
+    }
+
+    System.out.println(manager.size() + " sessions");
+
+    final AtomicLong latency = new AtomicLong();
+    Thread[] threads = new Thread[clients];
+    long begin = System.nanoTime();
+
+    for (int t = 0; t < clients; t++) {
+
+      final Random random = new Random(t);
+
+      threads[t] = new Thread() {
+
+        public void run() {
+
+          try {
+
+            for (int i = 0; i < commands/clients; i++) {
+
+              GameSession session = manager.get(1 + random.nextInt(numSessions));
+              long sent = System.nanoTime();
+              Future<GameState> future = session.submit(random.nextInt(Trichromino.RIGHT + 1));
+              future.get();
+              latency.addAndGet(System.nanoTime() - sent);
+              session.getState().getHash();
+
+            }
+
+          } catch (Exception e) {
+            System.out.println("command failed " + e);
+          }
+
+        }
+
+      };
+
+      threads[t].start();
+
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    long elapsed = System.nanoTime() - begin;
+
+    System.out.println(commands + " commands in " + elapsed/1000000 + "ms, mean latency "
+                         + latency.get()/commands/1000 + "us");
+    System.out.println(manager.evictIdle(0) + " evicted");
+
+    manager.shutdown();
+
+  }
+
+}
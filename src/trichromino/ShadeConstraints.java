@@ -0,0 +1,384 @@
+/**
+ * ShadeConstraints derives, from the displayed shade of every square in a
+ * solution, which colours each square of the board may hold, and uses these
+ * domains to reject placements that can no longer lead to the solution.
+ * <p>
+ * Colours are considered as they are seen by neighbouring squares: a square
+ * placed on a trap swaps colour (see GameGrid.getVisShade).  A white square
+ * displays as white, gray or black when it has zero, one or more black neighbours
+ * (and the other way around for black squares), so a square displayed as gray
+ * needs exactly one neighbour of the opposite colour, and so on.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.awt.Point;
+import java.util.LinkedList;
+
+public class ShadeConstraints {
+
+  private int[][] target;
+  private int[][] domains;
+  private boolean feasible;
+
+  private final int width, height;
+
+  private final int EMPTY = 0;
+  private final int WHITE = 1;
+  private final int BLACK = 3;
+  private final int GRAY = 5;
+
+  private final int T_BLACK = 10;
+  private final int T_WHITE = 12;
+
+  // domain bits
+  private static final int CAN_WHITE = 1;
+  private static final int CAN_BLACK = 2;
+
+  private static final int[] ROW_STEP = {-1, 0, 1, 0};
+  private static final int[] COL_STEP = {0, -1, 0, 1};
+
+  /**
+   * Constructor derives the domain of every square of board from the solution.
+   *
+   * @param board the board (traps) on which the solution is displayed
+   * @param solution the evaluated grid to be matched
+   * @throws IllegalArgumentException If the board and solution differ in size.
+   */
+  public ShadeConstraints(GameGrid board, int[][] solution) {
+
+    width = board.getWidth();
+    height = board.getHeight();
+
+    if (solution.length != height || solution[0].length != width)
+      throw new IllegalArgumentException("ShadeConstraints: solution does not match board");
+
+    target = solution;
+    domains = new int[height][width];
+
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+
+        if (isFilled(i,j)) domains[i][j] = CAN_WHITE | CAN_BLACK;
+
+      }
+    }
+
+    feasible = propagate();
+
+  }
+
+  /**
+   * Determines whether or not the solution can be displayed by any colouring of the board.
+   *
+   * @return false if some square has no colour left in its domain.
+   */
+  public boolean isFeasible() {
+
+    return feasible;
+
+  }
+
+  /**
+   * Determines whether or not the given square may hold white (as seen by its neighbours).
+   *
+   * @param row the target row
+   * @param col the target column
+   * @return true if white is in the domain of the square.
+   */
+  public boolean canBeWhite(int row, int col) {
+
+    return (domains[row][col] & CAN_WHITE) != 0;
+
+  }
+
+  /**
+   * Determines whether or not the given square may hold black (as seen by its neighbours).
+   *
+   * @param row the target row
+   * @param col the target column
+   * @return true if black is in the domain of the square.
+   */
+  public boolean canBeBlack(int row, int col) {
+
+    return (domains[row][col] & CAN_BLACK) != 0;
+
+  }
+
+  /**
+   * Determines whether or not every square of the piece would hold a colour allowed
+   * by its domain if the piece were placed on grid at pt.
+   *
+   * @param grid the board on which the piece is placed
+   * @param pce the piece being placed
+   * @param pt the point at which the piece is placed (x = col, y = row)
+   * @return true if the colour of every square of the piece is allowed.
+   */
+  public boolean allows(GameGrid grid, Piece pce, Point pt) {
+
+    return allows(grid,pce,pt.y,pt.x);
+
+  }
+
+  /**
+   * Determines whether or not every square of the piece would hold a colour allowed
+   * by its domain if the piece were placed on grid at the given position.
+   *
+   * @param grid the board on which the piece is placed
+   * @param pce the piece being placed
+   * @param top the row at which the piece is placed
+   * @param left the column at which the piece is placed
+   * @return true if the colour of every square of the piece is allowed.
+   */
+  public boolean allows(GameGrid grid, Piece pce, int top, int left) {
+
+    byte[] matrix = pce.getCells();
+    int cols = pce.getWidth();
+
+    for (int i = 0; i < pce.getHeight(); i++) {
+      for (int j = 0; j < cols; j++) {
+
+        int square = matrix[i*cols + j];
+        if (square == EMPTY) continue;
+
+        int row = i + top;
+        int col = j + left;
+        int shade = grid.hasTrap(row,col) ? WHITE + BLACK - square : square;
+
+        if ((domains[row][col] & bit(shade)) == 0) return false;
+
+      }
+    }
+
+    return true;
+
+  }
+
+  /**
+   * Determines whether or not the squares around the given region of grid can still
+   * display the solution once the remaining open squares are filled.  Each occupied
+   * square must be able to reach its shade and each open square must keep a colour
+   * that can reach its shade.
+   *
+   * @param grid the board being checked
+   * @param row the top row of the region (e.g. of a newly placed piece)
+   * @param col the left column of the region
+   * @param rows the number of rows in the region
+   * @param cols the number of columns in the region
+   * @return false if some square near the region can no longer display its shade.
+   */
+  public boolean consistent(GameGrid grid, int row, int col, int rows, int cols) {
+
+    byte[] values = grid.getCells();
+
+    for (int i = Math.max(row - 1,0); i < Math.min(row + rows + 1,height); i++) {
+      for (int j = Math.max(col - 1,0); j < Math.min(col + cols + 1,width); j++) {
+
+        if (!isFilled(i,j)) continue;
+
+        int shade = colour(values[i*width + j]);
+
+        if (shade != EMPTY) {
+          if (!reachable(values,i,j,shade)) return false;
+        } else if (!(canBeWhite(i,j) && reachable(values,i,j,WHITE))
+                     && !(canBeBlack(i,j) && reachable(values,i,j,BLACK))) {
+          return false;
+        }
+
+      }
+    }
+
+    return true;
+
+  }
+
+  /**
+   * Determines whether or not the given square, holding shade, can still display its
+   * target shade given the colours already placed around it and the domains of its
+   * open neighbours.
+   *
+   * @param values the squares of the board, row by row (see GameGrid.getCells)
+   * @param row the target row
+   * @param col the target column
+   * @param shade the colour held by the square (WHITE or BLACK)
+   * @return true if the target shade can be reached.
+   */
+  private boolean reachable(byte[] values, int row, int col, int shade) {
+
+    int opposite = bit(WHITE + BLACK - shade);
+    int min = 0;
+    int max = 0;
+
+    for (int d = 0; d < ROW_STEP.length; d++) {
+
+      int r = row + ROW_STEP[d];
+      int c = col + COL_STEP[d];
+      if (r < 0 || c < 0 || r >= height || c >= width) continue;
+
+      int adj = colour(values[r*width + c]);
+
+      if (adj != EMPTY) {
+        if (bit(adj) == opposite) {
+          min++;
+          max++;
+        }
+      } else if ((domains[r][c] & opposite) != 0) {
+        max++;
+      }
+
+    }
+
+    return displays(shade,min,max,target[row][col]);
+
+  }
+
+  /**
+   * Removes unsupported colours from the domains of all squares until none change.
+   * A colour is supported by a square if the number of neighbours that must and may
+   * hold the opposite colour allows the square to display its target shade.
+   *
+   * @return false if some square to be filled has no colour left.
+   */
+  private boolean propagate() {
+
+    LinkedList<Integer> queue = new LinkedList<Integer>();
+    for (int i = 0; i < height*width; i++) {
+      queue.add(i);
+    }
+
+    while (!queue.isEmpty()) {
+
+      int cell = queue.remove();
+      int row = cell/width;
+      int col = cell%width;
+
+      if (domains[row][col] == 0) continue;
+
+      int domain = 0;
+      if (canBeWhite(row,col) && supported(row,col,WHITE)) domain |= CAN_WHITE;
+      if (canBeBlack(row,col) && supported(row,col,BLACK)) domain |= CAN_BLACK;
+
+      if (domain == domains[row][col]) continue;
+      if (domain == 0) return false;
+
+      domains[row][col] = domain;
+
+      for (int d = 0; d < ROW_STEP.length; d++) {
+
+        int r = row + ROW_STEP[d];
+        int c = col + COL_STEP[d];
+        if (r >= 0 && c >= 0 && r < height && c < width && domains[r][c] != 0) queue.add(r*width + c);
+
+      }
+
+    }
+
+    return true;
+
+  }
+
+  /**
+   * Determines whether or not shade is supported at the given square by the domains
+   * of its neighbours.
+   *
+   * @param row the target row
+   * @param col the target column
+   * @param shade the colour being tested (WHITE or BLACK)
+   * @return true if the square can display its target shade while holding shade.
+   */
+  private boolean supported(int row, int col, int shade) {
+
+    int opposite = bit(WHITE + BLACK - shade);
+    int min = 0;
+    int max = 0;
+
+    for (int d = 0; d < ROW_STEP.length; d++) {
+
+      int r = row + ROW_STEP[d];
+      int c = col + COL_STEP[d];
+      if (r < 0 || c < 0 || r >= height || c >= width) continue;
+
+      if ((domains[r][c] & opposite) != 0) {
+        max++;
+        if (domains[r][c] == opposite) min++;
+      }
+
+    }
+
+    return displays(shade,min,max,target[row][col]);
+
+  }
+
+  /**
+   * Determines whether or not a square holding shade displays the target shade for
+   * some number of neighbours of the opposite colour between min and max.
+   *
+   * @param shade the colour held by the square (WHITE or BLACK)
+   * @param min the least possible number of neighbours of the opposite colour
+   * @param max the greatest possible number of neighbours of the opposite colour
+   * @param shown the target (displayed) shade
+   * @return true if shown can be displayed.
+   */
+  private boolean displays(int shade, int min, int max, int shown) {
+
+    if (shown == GRAY) return min <= 1 && max >= 1;
+    if (shown == shade) return min == 0;
+
+    return max >= 2;
+
+  }
+
+  /**
+   * Determines whether or not the solution shows a coloured square at the given position.
+   *
+   * @param row the target row
+   * @param col the target column
+   * @return true if the square must be occupied.
+   */
+  private boolean isFilled(int row, int col) {
+
+    int shade = target[row][col];
+
+    return shade == WHITE || shade == BLACK || shade == GRAY;
+
+  }
+
+  /**
+   * Returns the colour of a square as seen by its neighbours (a square on a trap
+   * swaps colour).
+   *
+   * @param value the value stored in the grid
+   * @return WHITE, BLACK or EMPTY.
+   */
+  private int colour(int value) {
+
+    switch (value) {
+
+      case WHITE :
+      case T_WHITE :
+        return WHITE;
+      case BLACK :
+      case T_BLACK :
+        return BLACK;
+      default :
+        return EMPTY;
+
+    }
+
+  }
+
+  /**
+   * Returns the domain bit of the given colour.
+   *
+   * @param shade WHITE or BLACK
+   * @return the domain bit corresponding to shade.
+   */
+  private int bit(int shade) {
+
+    return (shade == WHITE) ? CAN_WHITE : CAN_BLACK;
+
+  }
+
+}
@@ -11,6 +11,7 @@ package trichromino;
 import javax.swing.*;
 import java.awt.event.*;
 import java.awt.*;
+import java.util.concurrent.Future;
 
 public class SidePanel extends JPanel {
   
@@ -18,7 +19,12 @@ public class SidePanel extends JPanel {
   private JPanel mainPanel;
   private Trichromino game;
   private int[][] solution;
-  private JButton place, remove, up, down, left, right, prev, next, undo, redo, reset;
+  private JButton place, remove, up, down, left, right, prev, next, undo, redo, reset, hint;
+  
+  // the hint being searched for (null if none), and the panel that replaced this
+  // one when it was last refreshed (null if this panel is shown).
+  private Future<Hint> pendingHint;
+  private SidePanel successor;
   
   private final Color BACKGROUND = new Color(190,190,190);
   private final Color OFF_WHITE = new Color (250,250,250);
@@ -36,6 +42,9 @@ public class SidePanel extends JPanel {
   private final int UNDO = 4;
   private final int REDO = 5;
   
+  // time allowed for finding a hint (ms)
+  private final long HINT_BUDGET = 50;
+  
   private static final long serialVersionUID = 1;
   
   /**
@@ -137,6 +146,14 @@ public class SidePanel extends JPanel {
                                  KeyStroke.getKeyStroke(KeyEvent.VK_C, ActionEvent.CTRL_MASK, true), 
                                  JComponent.WHEN_IN_FOCUSED_WINDOW);
     
+    hint = new JButton("Hint");
+    if (game.isEmpty() || game.isOver()) hint.setEnabled(false);
+    else game.prepareHints();
+    hint.addActionListener(listener);
+    hint.registerKeyboardAction(listener, 
+                                KeyStroke.getKeyStroke("H"), 
+                                JComponent.WHEN_IN_FOCUSED_WINDOW);
+    
     add(flexibleComp());
     add(solution());
     add(Box.createRigidArea(new Dimension(0,5)));
@@ -260,17 +277,18 @@ public class SidePanel extends JPanel {
   }
   
   /**
-   * Generates a JPanel containing the reset button.
+   * Generates a JPanel containing the reset and hint buttons.
    * 
-   * @return JPanel containing the reset button.
+   * @return JPanel containing the reset and hint buttons.
    */
   private JPanel reset() {
     
-    JPanel resetPanel = new JPanel(new GridLayout(0,1));
+    JPanel resetPanel = new JPanel(new GridLayout(0,2));
     resetPanel.setPreferredSize(new Dimension(200,60));
     resetPanel.setMaximumSize(new Dimension(200,60));
     
     resetPanel.add(reset);
+    resetPanel.add(hint);
     
     return resetPanel;
     
@@ -299,13 +317,94 @@ public class SidePanel extends JPanel {
         mainPanel.repaint();
         mainPanel.revalidate();
         
+        successor = new SidePanel(game,mainPanel);
+        successor.pendingHint = pendingHint;
+        successor.updateHint();
+        
         sidePanel.removeAll();
-        sidePanel.add(new SidePanel(game,mainPanel));
+        sidePanel.add(successor);
         sidePanel.repaint();
         sidePanel.revalidate();
     
   }
   
+  /**
+   * Enables the hint button unless the game is empty or over or a hint is being
+   * searched for.
+   */
+  private void updateHint() {
+    
+    hint.setEnabled(pendingHint == null && !game.isEmpty() && !game.isOver());
+    
+  }
+  
+  /**
+   * Returns the panel currently shown in place of this one (this panel if it has
+   * not been refreshed).
+   * 
+   * @return the latest successor of this panel.
+   */
+  private SidePanel shown() {
+    
+    SidePanel panel = this;
+    while (panel.successor != null) panel = panel.successor;
+    
+    return panel;
+    
+  }
+  
+  /**
+   * Searches for a hint in the background and shows it once found, so that the
+   * search never holds up the event dispatch thread.
+   */
+  private void showHint() {
+    
+    final Future<Hint> future = game.hintLater(HINT_BUDGET);
+    pendingHint = future;
+    updateHint();
+    
+    new SwingWorker<Hint,Object>() {
+      
+      protected Hint doInBackground() throws Exception {
+        
+        return future.get();
+        
+      }
+      
+      protected void done() {
+        
+        SidePanel panel = shown();
+        if (panel.pendingHint == future) panel.pendingHint = null;
+        panel.updateHint();
+        
+        String message;
+        try {
+          Hint found = get();
+          switch (found.getType()) {
+            case Hint.PLACE :
+              message = "Try piece " + (found.getIndex()+1) + " at row " + (found.getPosition().y+1)
+                + ", column " + (found.getPosition().x+1) + ".";
+              break;
+            case Hint.REMOVE :
+              message = "Piece " + (found.getIndex()+1) + " does not belong where it is.";
+              break;
+            default :
+              message = "No hint could be found.";
+              break;
+          }
+        } catch (Exception e) {
+          message = "No hint could be found.";
+        }
+        
+        JOptionPane.showMessageDialog(SwingUtilities.getRoot(sidePanel), message,
+                                      "Hint", JOptionPane.PLAIN_MESSAGE);
+        
+      }
+      
+    }.execute();
+    
+  }
+  
   /**
    * Listeners respond to user interaction with this SidePanel.
    */
@@ -326,78 +425,84 @@ public class SidePanel extends JPanel {
                                         "Game Cleared",JOptionPane.PLAIN_MESSAGE);
         }
         
-        System.out.println("placed");
+        EventLog.info("placed");
           
       } else if (e == remove) {
         
         game.displace();
         refresh();
         
-        System.out.println("displaced");
+        EventLog.info("displaced");
         
       } else if (e == up) {
         
         game.move(UP);
         refresh();
         
-        System.out.println("moved up");
+        EventLog.info("moved","direction","up");
         
       } else if (e == down) {
         
         game.move(DOWN);
         refresh();
         
-        System.out.println("moved down");
+        EventLog.info("moved","direction","down");
         
       } else if (e == left) {
         
         game.move(LEFT);
         refresh();
         
-        System.out.println("moved left");
+        EventLog.info("moved","direction","left");
         
       } else if (e == right) {
         
         game.move(RIGHT);
         refresh();
         
-        System.out.println("moved right");
+        EventLog.info("moved","direction","right");
         
       } else if (e == prev) {
         
         game.prev();
         refresh();
         
-        System.out.println("prev got");
+        EventLog.info("selected","piece","previous");
         
       } else if (e == next) {
         
         game.next();
         refresh();
         
-        System.out.println("next got");
+        EventLog.info("selected","piece","next");
         
       } else if (e == undo) {
         
         game.stepper(UNDO);
         refresh();
         
-        System.out.println("undo");
+        EventLog.info("undo");
         
       } else if (e == redo) {
         
         game.stepper(REDO);
         refresh();
         
-        System.out.println("redo");
+        EventLog.info("redo");
         
       } else if (e == reset) {
         
         game.clear();
-        System.out.println(game);
+        if (EventLog.isEnabled(EventLog.DEBUG)) EventLog.debug(game.toString());
         refresh();
         
-        System.out.println("reset");
+        EventLog.info("reset");
+        
+      } else if (e == hint) {
+        
+        showHint();
+        
+        EventLog.info("hint");
         
       }
       
@@ -0,0 +1,781 @@
+/**
+ * Solver searches for placements of a set of pieces on a GameGrid such that the
+ * evaluated grid matches a given solution.
+ * <p>
+ * The search always fills the first (row-major) square that the solution requires
+ * to be occupied, trying every unused piece whose top-left square can cover it.
+ * Board states that fail are optionally recorded in a TranspositionTable so that
+ * they are not searched again when reached through a different order of placements.
+ * The keys depend only on the board and the pieces used, so one table may be shared
+ * by several solvers working on the same puzzle.
+ * <p>
+ * Unless disabled, placements are also checked against the ShadeConstraints of the
+ * solution, which rejects any placement after which a nearby square can no longer
+ * display its shade.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class Solver {
+
+  private GameGrid grid;
+  private int[][] solution;
+  private Piece[] pieces;
+
+  private int[] anchors; // column of the left-most square in the top row of each piece
+  private boolean[][] same; // same[i][j] if pieces i and j are identical
+  private long[] pieceKeys;
+
+  private boolean[] used;
+  private int[] placement; // packed positions (see Position)
+  private int[][] options; // pieces able to fill the open square, per depth
+  private long usedKey;
+  private int remaining;
+
+  private TranspositionTable table;
+  private ShadeConstraints constraints;
+  private AtomicBoolean stop;
+  private long deadline;
+  private long nodeLimit;
+  private boolean expired;
+  private int clock; // calls of search left before the deadline is next checked
+
+  // statistics of the last search
+  private long nodes;
+  private long expanded;
+  private long candidates;
+  private long forced;
+  private long backtracks;
+
+  private final int width, height;
+
+  private final int EMPTY = 0;
+  private final int WHITE = 1;
+  private final int BLACK = 3;
+  private final int GRAY = 5;
+
+  // number of calls of search between two checks of the deadline.
+  private static final int CLOCK_INTERVAL = 256;
+
+  // separates the keys of pieces from the keys of squares.
+  private static final long PIECE_SALT = 0x5DEECE66DL;
+
+  /**
+   * Constructor takes the board on which the pieces are placed (pieces already on
+   * the board are kept in place), the pieces left to place and the target solution.
+   * The board is copied; it is never modified by this solver.
+   *
+   * @param board the starting board
+   * @param toPlace the pieces to be placed on the board
+   * @param target the evaluated grid to be matched
+   */
+  public Solver(GameGrid board, List<Piece> toPlace, int[][] target) {
+
+    this(board.clone(),toPlace,target,null,0);
+
+    if (target.length == height && target[0].length == width) constraints = new ShadeConstraints(grid,target);
+
+  }
+
+  /**
+   * Constructor takes a board owned by this solver (it is not copied), the pieces
+   * left to place, the target solution, the shade constraints already derived from
+   * the board and the solution, and the combined keys of the pieces already placed
+   * on the board.  Lets solvers searching parts of one puzzle share the constraints
+   * of the puzzle, and the dead ends they record in a table.
+   *
+   * @param board the starting board, modified by the search
+   * @param toPlace the pieces to be placed on the board
+   * @param target the evaluated grid to be matched
+   * @param shared the shade constraints of target on board (null for none)
+   * @param placedKey the sum of the keys (see pieceKey) of the pieces already placed
+   */
+  Solver(GameGrid board, List<Piece> toPlace, int[][] target, ShadeConstraints shared, long placedKey) {
+
+    grid = board;
+    solution = target;
+    width = board.getWidth();
+    height = board.getHeight();
+
+    int n = toPlace.size();
+    pieces = toPlace.toArray(new Piece[n]);
+
+    anchors = new int[n];
+    same = new boolean[n][n];
+    pieceKeys = new long[n];
+
+    for (int i = 0; i < n; i++) {
+
+      byte[] top = pieces[i].getCells();
+      while (top[anchors[i]] == EMPTY) anchors[i]++;
+
+      for (int j = 0; j < i; j++) {
+        same[i][j] = same[j][i] = pieces[i].equals(pieces[j]);
+      }
+
+      pieceKeys[i] = pieceKey(pieces[i]);
+
+    }
+
+    used = new boolean[n];
+    placement = new int[n];
+    Arrays.fill(placement,Position.NONE);
+    options = new int[n][n];
+    remaining = n;
+
+    usedKey = placedKey;
+    constraints = shared;
+
+  }
+
+  /**
+   * Sets the table in which dead ends are recorded (null disables recording).
+   *
+   * @param t the transposition table used by this solver
+   */
+  public void setTable(TranspositionTable t) {
+
+    table = t;
+
+  }
+
+  /**
+   * Enables or disables pruning by the shade constraints of the solution (enabled
+   * by default).
+   *
+   * @param enabled true if placements are checked against the shade constraints
+   */
+  public void setPropagation(boolean enabled) {
+
+    if (!enabled) constraints = null;
+    else if (constraints == null && solution.length == height && solution[0].length == width)
+      constraints = new ShadeConstraints(grid,solution);
+
+  }
+
+  /**
+   * Sets a flag that, once raised, makes the search give up (solve returns null).
+   * Allows several solvers working on parts of one puzzle to stop each other.
+   *
+   * @param flag the flag checked by this solver (null if the search cannot be stopped)
+   */
+  public void setStop(AtomicBoolean flag) {
+
+    stop = flag;
+
+  }
+
+  /**
+   * Sets the time (as given by System.nanoTime) after which the search gives up
+   * (solve returns null and hasExpired returns true).
+   *
+   * @param time the deadline of the search (0 for none)
+   */
+  public void setDeadline(long time) {
+
+    deadline = time;
+
+  }
+
+  /**
+   * Sets the number of placements after which the search gives up (solve returns
+   * null and hasExpired returns true).
+   *
+   * @param limit the greatest number of placements made by a search (0 for no limit)
+   */
+  public void setNodeLimit(long limit) {
+
+    nodeLimit = limit;
+
+  }
+
+  /**
+   * Determines whether or not the last search gave up because its deadline passed
+   * or its node limit was reached.
+   *
+   * @return true if the last search ran out of time or nodes.
+   */
+  public boolean hasExpired() {
+
+    return expired;
+
+  }
+
+  /**
+   * Returns the number of placements made by the last search.
+   *
+   * @return the number of nodes visited in the last search.
+   */
+  public long getNodes() {
+
+    return nodes;
+
+  }
+
+  /**
+   * Returns the number of placements undone by the last search.
+   *
+   * @return the number of backtracks in the last search.
+   */
+  public long getBacktracks() {
+
+    return backtracks;
+
+  }
+
+  /**
+   * Returns the number of open squares the last search had to fill.
+   *
+   * @return the number of decisions made in the last search.
+   */
+  public long getDecisions() {
+
+    return expanded;
+
+  }
+
+  /**
+   * Returns the number of open squares that only a single piece could fill.
+   *
+   * @return the number of forced moves in the last search.
+   */
+  public long getForcedMoves() {
+
+    return forced;
+
+  }
+
+  /**
+   * Returns the average number of pieces able to fill an open square.
+   *
+   * @return the average branching factor of the last search (0 if no decision was made).
+   */
+  public double getBranching() {
+
+    return (expanded == 0) ? 0 : (double) candidates/expanded;
+
+  }
+
+  /**
+   * Searches for a solution.
+   *
+   * @return the positions (x = col, y = row) at which each piece is placed, in
+   *         the order the pieces were given, or null if there is no solution.
+   */
+  public Point[] solve() {
+
+    return toPoints(solvePositions());
+
+  }
+
+  /**
+   * Searches for a solution.
+   *
+   * @return the positions (packed, see Position) at which each piece is placed, in
+   *         the order the pieces were given, or null if there is no solution.
+   */
+  public int[] solvePositions() {
+
+    nodes = expanded = candidates = forced = backtracks = 0;
+    expired = false;
+    clock = CLOCK_INTERVAL;
+
+    if (solution.length != height || solution[0].length != width) return null;
+
+    // every square required by the solution must be covered exactly once.
+    int open = 0;
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+
+        if (!grid.isEmptySquare(i,j)) {
+          if (!mustFill(i,j)) return null;
+        } else if (mustFill(i,j)) open++;
+
+      }
+    }
+
+    int squares = 0;
+    for (Piece p : pieces) {
+      squares += numSquares(p);
+    }
+
+    if (squares != open) return null;
+    if (constraints != null && !(constraints.isFeasible() && constraints.consistent(grid,0,0,height,width)))
+      return null;
+
+    if (!search(0,0,0,0)) return null;
+
+    return placement.clone();
+
+  }
+
+  /**
+   * Fills the first open square at or after the given index, recursing until all
+   * pieces are placed.
+   * <p>
+   * Every square before the open square is final, so any square more than a row
+   * behind it can no longer change its displayed shade, and is checked against the
+   * solution once.  A square two rows behind the open square is only a neighbour of
+   * squares already checked, so it is then left out of the key of the board state,
+   * which lets boards that differ only in that part share a dead end.  Squares of
+   * the last two rows behind the open square stay in the key, as the shades of the
+   * squares still to be checked depend on them.
+   *
+   * @param from the row-major index at which the scan for an open square starts
+   * @param done the number of leading squares already checked against the solution
+   * @param dropped the number of leading squares left out of the key
+   * @param doneHash the combined keys of the leading squares left out of the key
+   * @return true if a solution was found (the board is left solved).
+   */
+  private boolean search(int from, int done, int dropped, long doneHash) {
+
+    // counted on every call, so calls that return early still bring the clock closer.
+    if (--clock == 0) {
+
+      clock = CLOCK_INTERVAL;
+      if (deadline != 0 && System.nanoTime() - deadline > 0) expired = true;
+
+    }
+
+    if (expired) return false;
+
+    int cell = from;
+    while (cell < width*height && !(mustFill(cell/width,cell%width) && grid.isEmptySquare(cell/width,cell%width)))
+      cell++;
+
+    if (cell == width*height) return remaining == 0 && grid.matches(solution);
+    if (remaining == 0) return false;
+
+    for (; done < cell - width; done++) {
+
+      int r = done/width;
+      int c = done%width;
+      if (grid.getVisShade(r,c) != solution[r][c]) return false;
+
+    }
+
+    byte[] values = grid.getCells();
+    for (; dropped < cell - 2*width; dropped++) {
+      doneHash ^= Zobrist.key(dropped,values[dropped]);
+    }
+
+    if (stopped()) return false;
+
+    long key = grid.getHash() ^ doneHash ^ usedKey ^ Zobrist.mix(cell);
+    if (table != null && table.isDeadEnd(key)) return false;
+
+    int row = cell/width;
+    int col = cell%width;
+
+    // collects the pieces able to fill the open square before trying any of them.
+    int[] choices = options[pieces.length - remaining];
+    int count = 0;
+
+    for (int i = 0; i < pieces.length; i++) {
+
+      if (!used[i] && !hasUnusedTwin(i) && canPlace(pieces[i],row,col - anchors[i]))
+        choices[count++] = i;
+
+    }
+
+    expanded++;
+    candidates += count;
+    if (count == 1) forced++;
+
+    for (int n = 0; n < count; n++) {
+
+      int i = choices[n];
+      int left = col - anchors[i];
+
+      nodes++;
+      PieceNode<Piece> node = grid.addPiece(pieces[i],row,left);
+      used[i] = true;
+      usedKey += pieceKeys[i];
+      placement[i] = Position.of(row,left);
+      remaining--;
+
+      if (constraints == null || constraints.consistent(grid,row,left,pieces[i].getHeight(),pieces[i].getWidth())) {
+        if (search(cell + 1,done,dropped,doneHash)) return true;
+      }
+
+      grid.removePiece(node);
+      used[i] = false;
+      usedKey -= pieceKeys[i];
+      placement[i] = Position.NONE;
+      remaining++;
+      backtracks++;
+
+    }
+
+    if (table != null && !stopped()) table.markDeadEnd(key,remaining);
+
+    return false;
+
+  }
+  
+  /**
+   * Returns the placements that fill the first open square of the starting board,
+   * indexed by piece (Position.NONE for pieces that cannot fill it).  These are the
+   * first branches of the search, which may be searched separately.
+   *
+   * @return the placement (packed, see Position) of each piece filling the first
+   *         open square, or null if the board has no open square.
+   */
+  int[] branches() {
+
+    int cell = 0;
+    while (cell < width*height && !(mustFill(cell/width,cell%width) && grid.isEmptySquare(cell/width,cell%width)))
+      cell++;
+
+    if (cell == width*height) return null;
+
+    int[] branches = new int[pieces.length];
+
+    for (int i = 0; i < pieces.length; i++) {
+
+      int row = cell/width;
+      int col = cell%width - anchors[i];
+
+      if (!hasUnusedTwin(i) && canPlace(pieces[i],row,col)) branches[i] = Position.of(row,col);
+      else branches[i] = Position.NONE;
+
+    }
+
+    return branches;
+
+  }
+
+  /**
+   * Determines whether or not the search has been told to stop or has run out of
+   * time or nodes.
+   *
+   * @return true if the stop flag is set or the deadline or node limit has passed.
+   */
+  private boolean stopped() {
+
+    if (!expired && nodeLimit != 0 && nodes >= nodeLimit) expired = true;
+
+    return expired || (stop != null && stop.get());
+
+  }
+
+  /**
+   * Determines whether or not an identical piece before piece i is still unused
+   * (in which case trying piece i would repeat its search).
+   *
+   * @param i the index of the target piece
+   * @return true if an earlier identical piece is unused.
+   */
+  private boolean hasUnusedTwin(int i) {
+
+    for (int j = 0; j < i; j++) {
+      if (same[i][j] && !used[j]) return true;
+    }
+
+    return false;
+
+  }
+
+  /**
+   * Determines whether or not the piece may be placed at the given position: it must
+   * fit, cover only squares required by the solution and respect the shade constraints.
+   *
+   * @param p the piece being placed
+   * @param row the row at which the piece is placed
+   * @param col the column at which the piece is placed
+   * @return true if the placement is worth searching.
+   */
+  private boolean canPlace(Piece p, int row, int col) {
+
+    if (col < 0 || !grid.pieceFits(p,row,col) || !onTarget(p,row,col)) return false;
+
+    return constraints == null || constraints.allows(grid,p,row,col);
+
+  }
+
+  /**
+   * Determines whether or not every square of the piece placed at the given position
+   * lands on a square the solution requires to be occupied.
+   *
+   * @param p the piece being placed
+   * @param row the row at which the piece is placed
+   * @param col the column at which the piece is placed
+   * @return true if the piece only covers squares required by the solution.
+   */
+  private boolean onTarget(Piece p, int row, int col) {
+
+    byte[] matrix = p.getCells();
+    int cols = p.getWidth();
+
+    for (int i = 0; i < p.getHeight(); i++) {
+      for (int j = 0; j < cols; j++) {
+
+        if (matrix[i*cols + j] != EMPTY && !mustFill(i+row,j+col)) return false;
+
+      }
+    }
+
+    return true;
+
+  }
+
+  /**
+   * Determines whether or not the solution requires the given square to be occupied.
+   *
+   * @param row the target row
+   * @param col the target column
+   * @return true if the solution shows a coloured square at the given position.
+   */
+  private boolean mustFill(int row, int col) {
+
+    int shade = solution[row][col];
+
+    return shade == WHITE || shade == BLACK || shade == GRAY;
+
+  }
+
+  /**
+   * Converts packed positions into points.
+   *
+   * @param positions the packed positions (may be null)
+   * @return the points (x = col, y = row) of the positions (null for Position.NONE),
+   *         or null if positions is null.
+   */
+  static Point[] toPoints(int[] positions) {
+
+    if (positions == null) return null;
+
+    Point[] points = new Point[positions.length];
+    for (int i = 0; i < positions.length; i++) {
+
+      if (positions[i] != Position.NONE) points[i] = new Point(Position.col(positions[i]),Position.row(positions[i]));
+
+    }
+
+    return points;
+
+  }
+
+  /**
+   * Returns a key identifying the shape and colour of the given piece.  Keys of used
+   * pieces are summed rather than XOR-ed so that identical pieces do not cancel out.
+   *
+   * @param p the target piece
+   * @return the key of p.
+   */
+  static long pieceKey(Piece p) {
+
+    byte[] matrix = p.getCells();
+    long key = Zobrist.mix(PIECE_SALT + p.getHeight());
+
+    for (int i = 0; i < matrix.length; i++) {
+
+      key = Zobrist.mix(key ^ Zobrist.key(i,matrix[i]));
+
+    }
+
+    return key;
+
+  }
+
+  /**
+   * Returns the number of squares making up the given piece.
+   *
+   * @param p the target piece
+   * @return the number of squares in p.
+   */
+  private int numSquares(Piece p) {
+
+    int count = 0;
+
+    for (byte square : p.getCells()) {
+      if (square != EMPTY) count++;
+    }
+
+    return count;
+
+  }
+
+  /**
+   * Compares the number of nodes searched with and without a transposition table
+   * and shade constraints on a few generated grids of increasing size, checks that
+   * the table never changes whether small random puzzles are solved, and compares
+   * the nodes of exhaustive searches with and without a table.  Every puzzle is
+   * seeded, so the counts are the same from run to run.
+   */
+  public static void main(String[]args) {
+
+    for (int size = 10; size <= 20; size += 5) {
+
+      GameGrid board = new GameGrid(size,size);
+      new BasicGameGenerator(board,size).sEasyGrid();
+
+      int[][] target = board.evaluate();
+      LinkedList<Piece> pieces = new LinkedList<Piece>();
+      for (PieceNode<Piece> node : board.removeAll()) {
+        pieces.add(node.getObj());
+      }
+
+      Solver plain = new Solver(board,pieces,target);
+      plain.setPropagation(false);
+      boolean solved = plain.solve() != null;
+
+      Solver cached = new Solver(board,pieces,target);
+      cached.setPropagation(false);
+      TranspositionTable table = new TranspositionTable(1 << 20, TranspositionTable.DEPTH_PREFERRED);
+      cached.setTable(table);
+      cached.solve();
+
+      Solver pruned = new Solver(board,pieces,target);
+      pruned.solve();
+
+      System.out.println(size + "x" + size + " " + solved + " nodes: " + plain.getNodes() + " -> "
+                           + cached.getNodes() + " (table hits: " + table.getHits() + ") -> "
+                           + pruned.getNodes() + " (shade constraints)");
+
+    }
+
+    // monominoes and dominoes on small boards with traps, one piece in two turned
+    // over so that many of the puzzles have no solution.
+    int[][][] small = {{{0,0}}, {{0,0},{0,1}}, {{0,0},{1,0}}};
+    Random random = new Random(1);
+    int puzzles = 2000, solved = 0, mismatches = 0;
+
+    for (int k = 0; k < puzzles; k++) {
+
+      int rows = 3 + random.nextInt(3);
+      int cols = 3 + random.nextInt(3);
+      GameGrid board = new GameGrid(rows,cols);
+
+      for (int t = random.nextInt(4); t > 0; t--) {
+
+        int r = random.nextInt(rows);
+        int c = random.nextInt(cols);
+        if (!board.hasTrap(r,c)) board.setTrap(r,c);
+
+      }
+
+      fill(board,small,random);
+
+      int[][] target = board.evaluate();
+      LinkedList<Piece> pieces = new LinkedList<Piece>();
+      for (PieceNode<Piece> node : board.removeAll()) {
+        pieces.add(random.nextBoolean() ? turnedOver(node.getObj()) : node.getObj());
+      }
+
+      Solver plain = new Solver(board,pieces,target);
+      plain.setPropagation(false);
+      boolean expected = plain.solvePositions() != null;
+
+      Solver cached = new Solver(board,pieces,target);
+      cached.setPropagation(false);
+      cached.setTable(new TranspositionTable(1 << 16, TranspositionTable.ALWAYS_REPLACE));
+
+      if (expected) solved++;
+      if ((cached.solvePositions() != null) != expected) mismatches++;
+
+    }
+
+    System.out.println(puzzles + " small puzzles, " + solved + " solved, " + mismatches
+                         + " changed by the table");
+
+    // exhaustive searches: random 12x12 boards of trominoes and tetrominoes, made
+    // unsolvable by turning one piece over.
+    int[][][] shapes = {{{0,0},{0,1},{0,2}}, {{0,0},{1,0},{2,0}}, {{0,0},{0,1},{1,0}}, {{0,0},{0,1},{1,1}},
+                        {{0,0},{1,0},{1,1}}, {{0,1},{1,0},{1,1}}, {{0,0},{0,1},{1,0},{1,1}},
+                        {{0,0},{0,1},{0,2},{0,3}}, {{0,0},{1,0},{2,0},{3,0}}, {{0,0},{1,0},{2,0},{2,1}},
+                        {{0,0},{0,1},{0,2},{1,1}}, {{0,0},{0,1},{1,1},{1,2}}};
+    long plainNodes = 0, cachedNodes = 0, hits = 0;
+
+    for (int k = 0; k < 10; k++) {
+
+      GameGrid board = new GameGrid(12,12);
+      fill(board,shapes,random);
+
+      int[][] target = board.evaluate();
+      LinkedList<Piece> pieces = new LinkedList<Piece>();
+      for (PieceNode<Piece> node : board.removeAll()) {
+        pieces.add(node.getObj());
+      }
+      pieces.add(turnedOver(pieces.remove(random.nextInt(pieces.size()))));
+
+      Solver plain = new Solver(board,pieces,target);
+      plain.solvePositions();
+
+      Solver cached = new Solver(board,pieces,target);
+      TranspositionTable table = new TranspositionTable(1 << 24, TranspositionTable.DEPTH_PREFERRED);
+      cached.setTable(table);
+      cached.solvePositions();
+
+      plainNodes += plain.getNodes();
+      cachedNodes += cached.getNodes();
+      hits += table.getHits();
+
+    }
+
+    System.out.println("10 unsolvable 12x12 boards, nodes: " + plainNodes + " -> " + cachedNodes
+                         + " with a table (" + hits + " hits)");
+
+  }
+
+  /**
+   * Places pieces of random shapes (from the given list) and shades at random on a
+   * board, until most of the board is covered.
+   *
+   * @param board the board being filled
+   * @param shapes the squares (row, column) of each shape
+   * @param random the source of the shapes, shades and positions
+   */
+  private static void fill(GameGrid board, int[][][] shapes, Random random) {
+
+    int rows = board.getHeight();
+    int cols = board.getWidth();
+
+    for (int t = 0; t < 6*rows*cols; t++) {
+
+      int[][] shape = shapes[random.nextInt(shapes.length)];
+      Piece p = new Piece(4,4,random.nextBoolean() ? 1 : 3);
+      for (int[] square : shape) {
+        p.addSquare(square[0],square[1]);
+      }
+      p = p.crop();
+
+      int r = random.nextInt(rows);
+      int c = random.nextInt(cols);
+      if (board.pieceFits(p,r,c)) board.addPiece(p,r,c);
+
+    }
+
+  }
+
+  /**
+   * Returns a piece of the same shape as p and of the other shade.
+   *
+   * @param p the piece turned over
+   * @return the piece turned over.
+   */
+  private static Piece turnedOver(Piece p) {
+
+    Piece turned = new Piece(p.getWidth(),p.getHeight(),(p.getShade() == 1) ? 3 : 1);
+    int[][] matrix = p.getMatrix();
+
+    for (int i = 0; i < p.getHeight(); i++) {
+      for (int j = 0; j < p.getWidth(); j++) {
+        if (matrix[i][j] != 0) turned.addSquare(i,j);
+      }
+    }
+
+    return turned.crop();
+
+  }
+
+}
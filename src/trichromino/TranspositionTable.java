@@ -0,0 +1,196 @@
+/**
+ * A fixed-size table recording board states (identified by their hash) from
+ * which a search is known to fail.  Used by the Solver to avoid re-searching
+ * partial boards reached through a different order of placements.
+ * <p>
+ * The table is lock-free and may be shared between threads.  Each entry is
+ * stored as a pair (key ^ data, data) so that a torn write by a competing
+ * thread is detected as a miss rather than a false dead end.  Hits and stores
+ * are counted in slots picked by thread, each on its own cache line, so threads
+ * sharing the table do not contend for the counters.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class TranspositionTable {
+
+  // replacement policies
+  public static final int ALWAYS_REPLACE = 0;
+  public static final int DEPTH_PREFERRED = 1;
+
+  // each entry occupies two longs.
+  private static final int ENTRY_BYTES = 16;
+  // the longs of 1 << 29 entries are the most an array can be indexed by.
+  private static final int MAX_ENTRIES = 1 << 29;
+
+  // counter slots (one per thread, modulo STRIPES), each PAD longs apart so that no
+  // two slots share a cache line; a slot holds the hits and then the stores.
+  private static final int STRIPES = 16;
+  private static final int PAD = 8;
+
+  private final AtomicLongArray entries;
+  private final int mask;
+  private final int policy;
+
+  private final AtomicLongArray counts;
+
+  /**
+   * Creates a table using at most budget bytes for its entries.
+   *
+   * @param budget the memory budget of this table in bytes
+   * @param policy the replacement policy (ALWAYS_REPLACE or DEPTH_PREFERRED)
+   * @throws IllegalArgumentException If the budget cannot hold a single entry
+   * or the policy is unknown.
+   */
+  public TranspositionTable(long budget, int policy) {
+
+    if (budget < ENTRY_BYTES) throw new IllegalArgumentException("TranspositionTable: budget too small");
+    if (policy != ALWAYS_REPLACE && policy != DEPTH_PREFERRED)
+      throw new IllegalArgumentException("TranspositionTable: invalid policy " + policy);
+
+    int size = (int) Long.highestOneBit(Math.min(budget/ENTRY_BYTES, MAX_ENTRIES));
+
+    entries = new AtomicLongArray(2*size);
+    mask = size - 1;
+    this.policy = policy;
+
+    counts = new AtomicLongArray(STRIPES*PAD);
+
+  }
+
+  /**
+   * Returns the number of entries this table can hold.
+   *
+   * @return the capacity of this table.
+   */
+  public int capacity() {
+
+    return mask + 1;
+
+  }
+
+  /**
+   * Determines whether or not the state with the given key is a recorded dead end.
+   *
+   * @param key the hash of the state
+   * @return true if the state has been recorded as a dead end.
+   */
+  public boolean isDeadEnd(long key) {
+
+    int slot = 2*index(key);
+
+    long data = entries.get(slot + 1);
+    if (data != 0 && (entries.get(slot) ^ data) == key) {
+      counts.incrementAndGet(stripe());
+      return true;
+    }
+
+    return false;
+
+  }
+
+  /**
+   * Records the state with the given key as a dead end.
+   *
+   * @param key the hash of the state
+   * @param depth the size of the failed subtree (e.g. the number of pieces left to place);
+   *              used by the DEPTH_PREFERRED policy to keep the most valuable entries.
+   */
+  public void markDeadEnd(long key, int depth) {
+
+    int slot = 2*index(key);
+    long data = (long) depth + 1;
+
+    if (policy == DEPTH_PREFERRED) {
+      long old = entries.get(slot + 1);
+      if (old > data && (entries.get(slot) ^ old) != key) return;
+    }
+
+    entries.set(slot + 1, data);
+    entries.set(slot, key ^ data);
+    counts.incrementAndGet(stripe() + 1);
+
+  }
+
+  /**
+   * Returns the number of successful dead end lookups.
+   *
+   * @return the number of hits in this table.
+   */
+  public long getHits() {
+
+    return sum(0);
+
+  }
+
+  /**
+   * Returns the number of recorded dead ends (including replaced entries).
+   *
+   * @return the number of stores made to this table.
+   */
+  public long getStores() {
+
+    return sum(1);
+
+  }
+
+  /**
+   * Adds up one of the counters over every slot.
+   *
+   * @param counter 0 for the hits, 1 for the stores
+   * @return the total of the counter.
+   */
+  private long sum(int counter) {
+
+    long total = 0;
+    for (int i = counter; i < counts.length(); i += PAD) {
+      total += counts.get(i);
+    }
+
+    return total;
+
+  }
+
+  /**
+   * Returns the first counter of the slot of the calling thread.
+   *
+   * @return the index in counts of the hits of the calling thread.
+   */
+  private static int stripe() {
+
+    return (int) (Thread.currentThread().getId() & (STRIPES - 1))*PAD;
+
+  }
+
+  /**
+   * Removes all entries from this table.
+   */
+  public void clear() {
+
+    for (int i = 0; i < entries.length(); i++) {
+      entries.set(i, 0);
+    }
+
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+
+  }
+
+  /**
+   * Returns the entry index of the given key.
+   *
+   * @param key the hash of the state
+   * @return the index of the entry for key.
+   */
+  private int index(long key) {
+
+    return (int) (key ^ (key >>> 32)) & mask;
+
+  }
+
+}
@@ -23,9 +23,16 @@ import java.io.IOException;
 import java.util.LinkedList;
 import java.util.Stack;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
 
 public class Trichromino implements Serializable {
   
+  // game modes
+  public static final int BASIC = 0;
+  public static final int CHALLENGE = 1;
+  
   private GameGrid currentGrid;
   private int[][] solution;
   private int currentIndex;
@@ -35,29 +42,68 @@ public class Trichromino implements Serializable {
   private Stack<Integer> undoable;
   private Stack<Integer> redoable;
   
+  // while a batch of commands is executed, entries of undoable below undoFloor
+  // have been pushed out and are only removed once the batch is done.
+  private transient boolean batching;
+  private transient int undoFloor;
+  
+  private transient List<GameListener> listeners;
+  
+  // records the commands applied to this game (null if not recording).
+  private transient GameRecording recording;
+  
+  // solves for hints; rebuilt when a new game is generated or loaded.
+  private transient HintEngine hints;
+  
   private final int MAX_UNDO = 30;
   
-  private final int EASY_SIZE = 10;
+  // number of games generated when looking for a game of a given rating
+  private final int MAX_ATTEMPTS = 50;
+  
+  // width and height of generated games unless given.
+  public static final int EASY_SIZE = 10;
+  
+  // smallest width and height of a generated game.
+  public static final int MIN_SIZE = 6;
   
   private final int NOT_FOUND = -1;
   
   // Modulo in which user input is registered
   private final int MODULO = 9;
   
-  // Integers corresponding to user input.
-  private final int LEFT = 0;
-  private final int RIGHT = 9;
-  private final int UP = 1;
-  private final int DOWN = 8;
-  private final int PREV = 2;
-  private final int NEXT = 7;
-  private final int PLACE = 3;
-  private final int DISPLACE = 6;
-  private final int UNDO = 4;
-  private final int REDO = 5;
+  // Integers corresponding to user input (commands).  Opposite commands
+  // add up to MODULO.
+  public static final int LEFT = 0;
+  public static final int RIGHT = 9;
+  public static final int UP = 1;
+  public static final int DOWN = 8;
+  public static final int PREV = 2;
+  public static final int NEXT = 7;
+  public static final int PLACE = 3;
+  public static final int DISPLACE = 6;
+  public static final int UNDO = 4;
+  public static final int REDO = 5;
   
   private static final long serialVersionUID = 1;
   
+  private static final Metrics.Timer COMMAND_TIME = Metrics.timer("game.command");
+  private static final Metrics.Timer BATCH_TIME = Metrics.timer("game.batch");
+  private static final Metrics.Timer GENERATE_TIME = Metrics.timer("game.generate");
+  private static final Metrics.Timer SAVE_TIME = Metrics.timer("game.save");
+  private static final Metrics.Timer LOAD_TIME = Metrics.timer("game.load");
+  
+  // counts of the commands applied, indexed by command.
+  private static final Metrics.Counter[] COMMAND_COUNTS = new Metrics.Counter[RIGHT + 1];
+  
+  static {
+    
+    String[] names = {"left","up","prev","place","undo","redo","displace","next","down","right"};
+    for (int i = 0; i < names.length; i++) {
+      COMMAND_COUNTS[i] = Metrics.counter("game.command." + names[i]);
+    }
+    
+  }
+  
   /**
    * Default constructor creates an empty game (empty tracking stacks,
    * empty grid/array/piece list)
@@ -76,6 +122,27 @@ public class Trichromino implements Serializable {
     
   }
   
+  /**
+   * Constructor creates a game in the given state (with no undo history).
+   * 
+   * @param state the state of the game
+   */
+  public Trichromino(GameState state) {
+    
+    this();
+    
+    if (!state.isEmpty()) {
+      
+      currentGrid = state.toGrid();
+      solution = state.getSolution();
+      pieces = state.toNodes();
+      currentIndex = state.getCurrentIndex();
+      currentPiece = pieces.get(currentIndex);
+      
+    }
+    
+  }
+  
   /**
    * Static method can be called in order to load a Trichromino game
    * from a file (utilises ObjectInputStream).
@@ -86,6 +153,8 @@ public class Trichromino implements Serializable {
    */
   public static Trichromino fromFile(String fileName) throws Exception {
     
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
+    
     try {
       
       FileInputStream fileIn = new FileInputStream(fileName + ".tcm");
@@ -95,6 +164,8 @@ public class Trichromino implements Serializable {
       objIn.close();
       fileIn.close();
       
+      if (Metrics.ENABLED) LOAD_TIME.stop(start);
+      
       return game;
       
     } catch (Exception e) {     
@@ -103,19 +174,57 @@ public class Trichromino implements Serializable {
     
   }
   
+  /**
+   * Returns a deep copy of this game: the copy shares no mutable state (grid,
+   * nodes, undo and redo stacks) with this game, so either may be played without
+   * affecting the other.  Listeners and recordings are not copied.
+   * 
+   * @return A copy of this game.
+   */
+  public Trichromino copy() {
+    
+    Trichromino copy = new Trichromino();
+    
+    copy.solution = solution;
+    copy.currentIndex = currentIndex;
+    copy.currentGrid = currentGrid.trapsOnly();
+    
+    for (PieceNode<Piece> node : pieces) {
+      
+      PieceNode<Piece> clone = node.clone();
+      copy.pieces.add(clone);
+      if (clone.isPlaced()) copy.currentGrid.addPiece(clone.getObj(),clone.getRow(),clone.getCol());
+      
+    }
+    
+    if (!isEmpty()) copy.currentPiece = copy.pieces.get(currentIndex);
+    
+    copy.undoable.addAll(undoable);
+    copy.redoable.addAll(redoable);
+    
+    return copy;
+    
+  }
+  
+  /**
+   * Returns an immutable snapshot of the current state of this game (without its
+   * undo history), which may be handed to other threads.
+   * 
+   * @return The state of this game.
+   */
+  public GameState snapshot() {
+    
+    return GameState.of(this);
+    
+  }
+  
   /**
    * Generates a Trichromino game in which there exist only polyomino pieces
    * on an empty board.
    */
   public void generateEasy() {
     
-    currentGrid = new GameGrid(EASY_SIZE,EASY_SIZE);
-    BasicGameGenerator generator = new BasicGameGenerator(currentGrid);
-    currentGrid = generator.easyGrid();
-    solution = currentGrid.evaluate();
-    pieces = currentGrid.removeAll();
-    currentIndex = 0;
-    currentPiece = pieces.get(currentIndex);
+    generate(BASIC,new BasicGameGenerator(new GameGrid(EASY_SIZE,EASY_SIZE)));
     
   }
   
@@ -125,13 +234,149 @@ public class Trichromino implements Serializable {
    */
   public void generateSEasy() {
     
-    currentGrid = new GameGrid(EASY_SIZE,EASY_SIZE);
-    BasicGameGenerator generator = new BasicGameGenerator(currentGrid);
-    currentGrid = generator.sEasyGrid();
+    generate(CHALLENGE,new BasicGameGenerator(new GameGrid(EASY_SIZE,EASY_SIZE)));
+    
+  }
+  
+  /**
+   * Generates a game of the given mode.
+   * 
+   * @param mode BASIC (see generateEasy) or CHALLENGE (see generateSEasy)
+   * @throws IllegalArgumentException If mode is not a valid mode.
+   */
+  public void generate(int mode) {
+    
+    switch (mode) {
+      
+      case BASIC :
+        generateEasy();
+        break;
+        
+      case CHALLENGE :
+        generateSEasy();
+        break;
+        
+      default :
+        throw new IllegalArgumentException("generate: " + mode + " is not a valid mode.");
+        
+    }
+    
+  }
+  
+  /**
+   * Generates a game of the given mode on a square board of the given size.
+   * 
+   * @param mode BASIC (see generateEasy) or CHALLENGE (see generateSEasy)
+   * @param size the width and height of the board
+   * @throws IllegalArgumentException If mode is not a valid mode or size is less than MIN_SIZE.
+   */
+  public void generate(int mode, int size) {
+    
+    if (size < MIN_SIZE) throw new IllegalArgumentException("generate: " + size + " is not a valid size.");
+    
+    generate(mode,new BasicGameGenerator(new GameGrid(size,size)));
+    
+  }
+  
+  /**
+   * Generates a game of the given mode on a square board of the given size, the
+   * same game every time for the same seed.
+   * 
+   * @param mode BASIC (see generateEasy) or CHALLENGE (see generateSEasy)
+   * @param size the width and height of the board
+   * @param seed the seed of the generator
+   * @throws IllegalArgumentException If mode is not a valid mode or size is less than MIN_SIZE.
+   */
+  public void generateSeeded(int mode, int size, long seed) {
+    
+    if (size < MIN_SIZE) throw new IllegalArgumentException("generateSeeded: " + size + " is not a valid size.");
+    
+    generate(mode,new BasicGameGenerator(new GameGrid(size,size),seed));
+    
+  }
+  
+  /**
+   * Generates a game of the given mode with the given generator.
+   * 
+   * @param mode BASIC or CHALLENGE
+   * @param generator the generator of the board
+   * @throws IllegalArgumentException If mode is not a valid mode.
+   */
+  private void generate(int mode, BasicGameGenerator generator) {
+    
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
+    
+    switch (mode) {
+      
+      case BASIC :
+        currentGrid = generator.easyGrid();
+        break;
+        
+      case CHALLENGE :
+        currentGrid = generator.sEasyGrid();
+        break;
+        
+      default :
+        throw new IllegalArgumentException("generate: " + mode + " is not a valid mode.");
+        
+    }
+    
     solution = currentGrid.evaluate();
     pieces = currentGrid.removeAll();
     currentIndex = 0;
     currentPiece = pieces.get(currentIndex);
+    discardHints();
+    recording = null;
+    
+    if (Metrics.ENABLED) GENERATE_TIME.stop(start);
+    
+  }
+  
+  /**
+   * Generates games of the given mode until one is rated (by DifficultyRater) between
+   * minRating and maxRating.  If none is found within MAX_ATTEMPTS games, the game
+   * rated closest to the band is kept.
+   * 
+   * @param mode BASIC or CHALLENGE
+   * @param minRating the lowest acceptable rating
+   * @param maxRating the highest acceptable rating
+   * @return true if the generated game is rated within the band.
+   * @throws IllegalArgumentException If mode is not a valid mode or the band is empty.
+   */
+  public boolean generate(int mode, int minRating, int maxRating) {
+    
+    if (minRating > maxRating) throw new IllegalArgumentException("generate: empty rating band");
+    
+    DifficultyRater rater = new DifficultyRater();
+    GameGrid bestGrid = null;
+    int[][] bestSolution = null;
+    LinkedList<PieceNode<Piece>> bestPieces = null;
+    int bestDistance = Integer.MAX_VALUE;
+    
+    for (int i = 0; i < MAX_ATTEMPTS && bestDistance > 0; i++) {
+      
+      generate(mode);
+      
+      int rating = rater.rate(this);
+      int distance = Math.max(minRating - rating, rating - maxRating);
+      
+      if (distance < bestDistance) {
+        bestDistance = distance;
+        bestGrid = currentGrid;
+        bestSolution = solution;
+        bestPieces = pieces;
+      }
+      
+    }
+    
+    currentGrid = bestGrid;
+    solution = bestSolution;
+    pieces = bestPieces;
+    currentIndex = 0;
+    currentPiece = pieces.get(currentIndex);
+    discardHints();
+    
+    return bestDistance <= 0;
     
   }
   
@@ -247,7 +492,7 @@ public class Trichromino implements Serializable {
     
     if (isEmpty()) return false;
     
-    return currentGrid.pieceFits(currentPiece.getObj(), currentPiece.getFloatPos());
+    return currentGrid.pieceFits(currentPiece.getObj(), currentPiece.getRow(), currentPiece.getCol());
     
   }
   
@@ -266,19 +511,19 @@ public class Trichromino implements Serializable {
     switch (cmd) {
       
       case LEFT : 
-        if (currentPiece.getFloatPos().x-1 < 0) return false;
+        if (currentPiece.getCol()-1 < 0) return false;
         return true;
         
       case RIGHT :
-        if (currentPiece.getFloatPos().x + currentPiece.getObj().getWidth() + 1 > currentGrid.getWidth()) return false;
+        if (currentPiece.getCol() + currentPiece.getObj().getWidth() + 1 > currentGrid.getWidth()) return false;
         return true;
         
       case UP :
-        if (currentPiece.getFloatPos().y - 1 < 0) return false;
+        if (currentPiece.getRow() - 1 < 0) return false;
         return true;
         
       case DOWN :
-        if (currentPiece.getFloatPos().y + currentPiece.getObj().getHeight()+1 > currentGrid.getHeight()) return false;
+        if (currentPiece.getRow() + currentPiece.getObj().getHeight()+1 > currentGrid.getHeight()) return false;
         return true;
         
       default :
@@ -299,6 +544,8 @@ public class Trichromino implements Serializable {
     
     if (isEmpty()) throw new IllegalStateException("move: Game is current empty");
     
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
+    
     if (!currentPiece.isPlaced() && canMove(cmd)) {  
       appendUndo(cmd);
       
@@ -326,6 +573,9 @@ public class Trichromino implements Serializable {
       }
       
     }
+    
+    if (Metrics.ENABLED) commandDone(cmd,start);
+    
   }
   
   /**
@@ -338,14 +588,18 @@ public class Trichromino implements Serializable {
     
     if (isEmpty()) throw new IllegalStateException("place: Game is current empty");
     
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
+    
     if (!currentPiece.isPlaced()) {
       
       appendUndo(PLACE);
       
       currentPiece.place();
-      currentGrid.addPiece(currentPiece.getObj(),currentPiece.getFloatPos());
+      currentGrid.addPiece(currentPiece.getObj(),currentPiece.getRow(),currentPiece.getCol());
     }
     
+    if (Metrics.ENABLED) commandDone(PLACE,start);
+    
   }
   
   
@@ -359,6 +613,8 @@ public class Trichromino implements Serializable {
     
     if (isEmpty()) throw new IllegalStateException("displace: Game is current empty");
     
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
+    
     if (currentPiece.isPlaced()) {
       
       appendUndo(DISPLACE);
@@ -368,6 +624,8 @@ public class Trichromino implements Serializable {
       
     }
     
+    if (Metrics.ENABLED) commandDone(DISPLACE,start);
+    
   }
 
   /**
@@ -379,11 +637,15 @@ public class Trichromino implements Serializable {
     
     if (isEmpty()) throw new IllegalStateException("next: Game is current empty");
     
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
+    
     appendUndo(NEXT);
     
     currentIndex = (currentIndex+1)%pieces.size();
     currentPiece = pieces.get(currentIndex);
     
+    if (Metrics.ENABLED) commandDone(NEXT,start);
+    
   }
 
   /**
@@ -395,26 +657,296 @@ public class Trichromino implements Serializable {
     
     if (isEmpty()) throw new IllegalStateException("prev: Game is current empty");
     
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
+    
     appendUndo(PREV);
     
     currentIndex = (currentIndex-1+pieces.size())%pieces.size();
     currentPiece = pieces.get(currentIndex);
     
+    if (Metrics.ENABLED) commandDone(PREV,start);
+    
+  }
+  
+  /**
+   * Applies a single command (one of LEFT, RIGHT, UP, DOWN, PREV, NEXT, PLACE,
+   * DISPLACE, UNDO or REDO) and notifies the listeners of this game.  Commands that
+   * cannot be carried out (moving into an edge, placing a piece that does not fit,
+   * undoing with nothing to undo...) are ignored.
+   * 
+   * @param cmd the command to apply
+   * @throws IllegalStateException If this game is empty.
+   * @throws IllegalArgumentException If cmd is not a valid command.
+   */
+  public void execute(int cmd) {
+    
+    if (isEmpty()) throw new IllegalStateException("execute: Game is current empty");
+    if (cmd < LEFT || cmd > RIGHT) throw new IllegalArgumentException("execute: " + cmd + " is not a valid command.");
+    
+    apply(cmd);
+    
+    changed(1);
+    
+  }
+  
+  /**
+   * Applies every command in cmds (see execute).
+   * 
+   * @param cmds the commands to apply, one per byte
+   * @throws IllegalStateException If this game is empty.
+   * @throws IllegalArgumentException If some command is not valid (no command is applied).
+   */
+  public void executeAll(byte[] cmds) {
+    
+    executeAll(cmds,0,cmds.length);
+    
+  }
+  
+  /**
+   * Applies len commands of cmds, starting at off (see execute).  All commands are
+   * checked before any is applied, entries of the undo stack pushed out by the batch
+   * are removed once at its end and the listeners are notified once.
+   * 
+   * @param cmds the commands to apply, one per byte
+   * @param off the index of the first command to apply
+   * @param len the number of commands to apply
+   * @throws IndexOutOfBoundsException If off and len do not describe a range of cmds.
+   * @throws IllegalStateException If this game is empty.
+   * @throws IllegalArgumentException If some command is not valid (no command is applied).
+   */
+  public void executeAll(byte[] cmds, int off, int len) {
+    
+    if (off < 0 || len < 0 || off > cmds.length - len) 
+      throw new IndexOutOfBoundsException("executeAll: range " + off + "+" + len + " outside " + cmds.length);
+    if (len == 0) return;
+    if (isEmpty()) throw new IllegalStateException("executeAll: Game is current empty");
+    
+    for (int i = off; i < off + len; i++) {
+      
+      if (cmds[i] < LEFT || cmds[i] > RIGHT) 
+        throw new IllegalArgumentException("executeAll: " + cmds[i] + " at " + i + " is not a valid command.");
+      
+    }
+    
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
+    
+    batching = true;
+    
+    try {
+      
+      for (int i = off; i < off + len; i++) {
+        apply(cmds[i]);
+      }
+      
+    } finally {
+      
+      batching = false;
+      undoable.subList(0,undoFloor).clear();
+      undoFloor = 0;
+      
+    }
+    
+    if (Metrics.ENABLED) BATCH_TIME.stop(start);
+    
+    changed(len);
+    
+  }
+  
+  /**
+   * Carries out a (valid) command, ignoring commands that cannot be carried out.
+   * 
+   * @param cmd the command to carry out
+   */
+  private void apply(int cmd) {
+    
+    switch (cmd) {
+      
+      case LEFT :
+      case RIGHT :
+      case UP :
+      case DOWN :
+        move(cmd);
+        break;
+        
+      case PREV :
+        prev();
+        break;
+        
+      case NEXT :
+        next();
+        break;
+        
+      case PLACE :
+        if (validPlace()) place();
+        break;
+        
+      case DISPLACE :
+        displace();
+        break;
+        
+      default :
+        stepper(cmd);
+        
+    }
+    
+  }
+  
+  /**
+   * Starts recording the commands applied to this game from its current state
+   * (replacing any recording in progress).  Recording stops when a new game is
+   * generated or the game is cleared.
+   * 
+   * @return The recording to which commands are appended.
+   */
+  public GameRecording startRecording() {
+    
+    recording = new GameRecording(this);
+    
+    return recording;
+    
+  }
+  
+  /**
+   * Stops recording the commands applied to this game.
+   * 
+   * @return The finished recording (null if this game was not being recorded).
+   */
+  public GameRecording stopRecording() {
+    
+    GameRecording finished = recording;
+    recording = null;
+    
+    return finished;
+    
+  }
+  
+  /**
+   * Appends a command that took effect to the recording of this game, if any.
+   * 
+   * @param cmd the command that took effect
+   */
+  private void record(int cmd) {
+    
+    if (recording != null) recording.append(cmd,System.currentTimeMillis());
+    
+  }
+  
+  /**
+   * Registers a listener to be notified of the commands executed on this game.
+   * 
+   * @param listener the listener being added
+   */
+  public void addGameListener(GameListener listener) {
+    
+    if (listeners == null) listeners = new CopyOnWriteArrayList<GameListener>();
+    
+    listeners.add(listener);
+    
+  }
+  
+  /**
+   * Removes a listener added by addGameListener.
+   * 
+   * @param listener the listener being removed
+   */
+  public void removeGameListener(GameListener listener) {
+    
+    if (listeners != null) listeners.remove(listener);
+    
+  }
+  
+  /**
+   * Notifies the listeners of this game that commands have been applied.
+   * 
+   * @param commands the number of commands applied
+   */
+  private void changed(int commands) {
+    
+    if (listeners == null) return;
+    
+    for (GameListener listener : listeners) {
+      listener.gameChanged(this,commands);
+    }
+    
+  }
+  
+  /**
+   * Finds a hint for the current state of this game: where to place the selected
+   * piece (or the next unplaced piece if the selected piece is correctly placed), or
+   * which piece to remove if the placed pieces cannot lead to the solution.
+   * 
+   * @param budget the time allowed for the search in milliseconds.
+   * @return A hint, or a hint of type NONE if none was found within the budget.
+   */
+  public Hint hint(long budget) {
+    
+    return hintEngine().hint(this,budget);
+    
+  }
+  
+  /**
+   * Finds a hint for the current state of this game on a background thread.  The
+   * state is copied before returning, so this game may be played in the meantime.
+   * 
+   * @param budget the time allowed for the search in milliseconds.
+   * @return The future hint.
+   */
+  public Future<Hint> hintLater(long budget) {
+    
+    return hintEngine().hintLater(this,budget);
+    
+  }
+  
+  /**
+   * Starts solving this game in the background so that the first hint need not wait
+   * for the whole puzzle to be solved.  Does nothing if this game is empty or its
+   * hint engine already exists.
+   */
+  public void prepareHints() {
+    
+    if (!isEmpty()) hintEngine();
+    
+  }
+  
+  /**
+   * Returns the hint engine of this game, creating it on first use.
+   * 
+   * @return The hint engine of this game.
+   */
+  private HintEngine hintEngine() {
+    
+    if (hints == null) hints = new HintEngine(this);
+    
+    return hints;
+    
+  }
+  
+  /**
+   * Stops and forgets the hint engine of the previous game.
+   */
+  private void discardHints() {
+    
+    if (hints != null) hints.stop();
+    hints = null;
+    
   }
   
   /**
    * Appends step into the undoable stack and clears the redoable stack.
    * If the size of the stack exceeds MAX_UNDO, the bottom of the stack is
-   * removed.
+   * removed (at the end of the batch if a batch of commands is being executed).
+   * The step is also recorded if this game is being recorded.
    * 
    * @param step the integer corresponding to the step being made.
    */
   private void appendUndo(int step) {
     
+    record(step);
     undoable.push(step);
-    redoable.removeAllElements();
-    if (undoable.size() >= MAX_UNDO) {
-      undoable.removeElementAt(0);
+    if (!redoable.isEmpty()) redoable.removeAllElements();
+    if (undoable.size() - undoFloor >= MAX_UNDO) {
+      if (batching) undoFloor++;
+      else undoable.removeElementAt(0);
     }
     
   }
@@ -426,7 +958,7 @@ public class Trichromino implements Serializable {
    */
   public boolean canUndo() {
     
-    return (undoable.size() > 0);
+    return (undoable.size() > undoFloor);
     
   }
   
@@ -448,12 +980,14 @@ public class Trichromino implements Serializable {
    */
   public void stepper(int cmd) {
     
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
     int step;
     
     switch (cmd) {
       
       case UNDO:
         if (canUndo()) {
+        record(UNDO);
         step = undoable.pop();
         redoable.push(step);
         stepperCommands(Math.abs(step-MODULO));
@@ -462,6 +996,7 @@ public class Trichromino implements Serializable {
         
       case REDO:
         if (canRedo()) {
+        record(REDO);
         step = redoable.pop();
         undoable.push(step);
         stepperCommands(step);
@@ -474,6 +1009,23 @@ public class Trichromino implements Serializable {
         
     }
     
+    if (Metrics.ENABLED) commandDone(cmd,start);
+    
+  }
+  
+  /**
+   * Counts a command carried out by move, place, displace, next, prev or stepper,
+   * and records its duration unless it is part of a batch (whose duration is
+   * recorded as a whole by executeAll).
+   * 
+   * @param cmd the command carried out
+   * @param start the time (System.nanoTime) at which the command started
+   */
+  private void commandDone(int cmd, long start) {
+    
+    COMMAND_COUNTS[cmd].increment();
+    if (!batching) COMMAND_TIME.stop(start);
+    
   }
   
   /**
@@ -512,7 +1064,7 @@ public class Trichromino implements Serializable {
           break;
           
         case PLACE: 
-          currentGrid.addPiece(currentPiece.getObj(),currentPiece.getFloatPos());
+          currentGrid.addPiece(currentPiece.getObj(),currentPiece.getRow(),currentPiece.getCol());
           currentPiece.place();
           break;
           
@@ -539,6 +1091,8 @@ public class Trichromino implements Serializable {
     
     if (isEmpty()) throw new IllegalStateException("save: Game is current empty");
     
+    long start = Metrics.ENABLED ? System.nanoTime() : 0;
+    
     try {
       
       FileOutputStream fileOut = new FileOutputStream(fileName + ".tcm");
@@ -547,6 +1101,8 @@ public class Trichromino implements Serializable {
       objOut.close();
       fileOut.close();
       
+      if (Metrics.ENABLED) SAVE_TIME.stop(start);
+      
     } catch (IOException e) {
       throw new IOException("save: " + e);
     }
@@ -554,7 +1110,8 @@ public class Trichromino implements Serializable {
   }
   
   /**
-   * Clears the grid and resets the location of all pieces.
+   * Clears the grid and resets the location of all pieces.  Stops any recording
+   * of this game.
    * 
    * @throws IllegalStateException if the game is empty.
    */
@@ -571,6 +1128,7 @@ public class Trichromino implements Serializable {
     
     undoable.removeAllElements();
     redoable.removeAllElements();
+    recording = null;
     
   }
   
@@ -582,43 +1140,7 @@ public class Trichromino implements Serializable {
    */
   public String toString() {
     
-    String s = currentGrid.toString() + "\n" ;
-    
-    for (int i = 0; i < solution.length ; i++) {
-      for (int j = 0; j < solution[0].length ; j++) {
-        
-        if (currentPiece.isPlaced()) s += currentGrid.evaluate()[i][j] + " ";
-        
-        else s += currentGrid.showPiece(currentPiece.getObj(),currentPiece.getFloatPos())[i][j] + " " ;
-        
-      }
-      
-      s += "\n";
-        
-    }
-    
-    s += "\n";
-    
-    for (int i = 0; i < solution.length ; i++) {
-      for (int j = 0; j < solution[0].length ; j++) {
-        
-        s += solution[i][j] + " " ;
-        
-      }
-      
-      s += "\n";
-        
-    }
-    
-    s += "\n";
-    
-    for (PieceNode<Piece> node : pieces) {
-      
-      s += (node + "\n\n");
-      
-    }
-    
-    return s;
+    return BoardWriter.toText(this);
     
   }
   
@@ -709,9 +1231,9 @@ public class Trichromino implements Serializable {
     gameTest.place();
     gameTest.next();
     gameTest.next();
-    gameTest.move(gameTest.RIGHT);
+    gameTest.move(RIGHT);
     System.out.println(gameTest);
-    gameTest.move(gameTest.RIGHT);
+    gameTest.move(RIGHT);
     System.out.println(gameTest);
     
     try {
@@ -735,6 +1257,18 @@ public class Trichromino implements Serializable {
     testGen.generateEasy();
     System.out.println(testGen);
     
+    System.out.println(testGen.hint(50));
+    testGen.place();
+    System.out.println(testGen.hint(50));
+    
+    testGen.addGameListener(new GameListener() {
+      public void gameChanged(Trichromino game, int commands) {
+        System.out.println(commands + " commands, over: " + game.isOver());
+      }
+    });
+    testGen.executeAll(new byte[] {NEXT, RIGHT, RIGHT, DOWN, PLACE, UNDO, UNDO, REDO});
+    System.out.println(testGen.getCurrentNode());
+    
   }
   
   }
\ No newline at end of file
@@ -140,6 +140,10 @@ public class TrichrominoGUI {
     
     gui.game = new Trichromino();
     
+    // start generating games before the first is asked for.
+    PuzzlePool.of(Trichromino.BASIC,Trichromino.EASY_SIZE);
+    PuzzlePool.of(Trichromino.CHALLENGE,Trichromino.EASY_SIZE);
+    
     frame.setJMenuBar(gui.makeMenu());
     gui.setContent();
     frame.setContentPane(gui.content);
@@ -161,10 +165,10 @@ public class TrichrominoGUI {
     Trichromino triGame = new Trichromino();
     switch (mode) {
       case 0:
-        triGame.generateEasy();
+        triGame = PuzzlePool.of(Trichromino.BASIC,Trichromino.EASY_SIZE).take();
         break;
       case 1:
-        triGame.generateSEasy();
+        triGame = PuzzlePool.of(Trichromino.CHALLENGE,Trichromino.EASY_SIZE).take();
         break;
     }
     refresh(triGame);
@@ -247,7 +251,7 @@ public class TrichrominoGUI {
               System.exit(0);
             case JOptionPane.NO_OPTION: System.exit(0);
           }
-          System.out.println("quit");
+          EventLog.info("quit");
           
         } else {
           System.exit(0);
@@ -256,22 +260,22 @@ public class TrichrominoGUI {
       } else if (e == gameplay) {
         
         layout.show(content, "gameplay");
-        System.out.println("gameplay");        
+        EventLog.info("shown","card","gameplay");
         
       } else if (e == about) {
         
         layout.show(content, "about");
-        System.out.println("about");        
+        EventLog.info("shown","card","about");
         
       } else if (e == gameplayPanel.getOK()) {
         
         layout.show(content,"game");
-        System.out.println("game");
+        EventLog.info("shown","card","game");
         
       } else if (e == aboutPanel.getOK()) {
         
         layout.show(content,"game");
-        System.out.println("game");
+        EventLog.info("shown","card","game");
         
       }
       
@@ -0,0 +1,54 @@
+/**
+ * Zobrist supplies the pseudo-random keys used to hash grid states.  Keys are
+ * derived from the position and value of a square rather than drawn from a
+ * stored table, so grids of any size hash consistently across instances
+ * (and across runs).
+ * <p>
+ * An empty square always has a key of 0, so the hash of an empty grid is 0.
+ *
+ * @version %I%, %G%
+ * */
+
+package trichromino;
+
+final class Zobrist {
+
+  // value identifiers stored in a grid range from EMPTY (0) to T_WHITE (12).
+  private static final int VALUE_BITS = 4;
+
+  private static final long SEED = 0x9E3779B97F4A7C15L;
+
+  private Zobrist() {
+
+  }
+
+  /**
+   * Returns the key for the given value stored at the given index.
+   *
+   * @param index the row-major index of the square
+   * @param value the value stored in the square
+   * @return the key for value at index (0 if value is empty).
+   */
+  static long key(int index, int value) {
+
+    if (value == 0) return 0;
+
+    return mix(((long) index << VALUE_BITS | value) * SEED);
+
+  }
+
+  /**
+   * Scrambles the bits of z (SplitMix64 finaliser).
+   *
+   * @param z the value to be scrambled
+   * @return the scrambled value.
+   */
+  static long mix(long z) {
+
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+
+  }
+
+}